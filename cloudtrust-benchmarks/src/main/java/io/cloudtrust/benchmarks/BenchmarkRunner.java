@@ -0,0 +1,41 @@
+package io.cloudtrust.benchmarks;
+
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with several thread counts, to check how the operations scale under contention.
+ * <p>
+ * Usage: java -cp target/benchmarks.jar io.cloudtrust.benchmarks.BenchmarkRunner [regexp] [thread counts...]
+ * <br>
+ * e.g. java -cp target/benchmarks.jar io.cloudtrust.benchmarks.BenchmarkRunner DatabaseStorage 1 4 16
+ * <p>
+ * A single configuration can be run with the JMH command line: java -jar target/benchmarks.jar -t 8 Gcm
+ */
+public class BenchmarkRunner {
+    private static final int[] DEFAULT_THREADS = {1, 4, Runtime.getRuntime().availableProcessors()};
+
+    //Avoid class instantiation
+    private BenchmarkRunner() {
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        String include = args.length > 0 ? args[0] : "io.cloudtrust.benchmarks.*";
+        int[] threads = DEFAULT_THREADS;
+        if (args.length > 1) {
+            threads = new int[args.length - 1];
+            for (int i = 1; i < args.length; i++) {
+                threads[i - 1] = Integer.parseInt(args[i]);
+            }
+        }
+        for (int threadCount : threads) {
+            Options options = new OptionsBuilder()
+                    .include(include)
+                    .threads(threadCount)
+                    .build();
+            new Runner(options).run();
+        }
+    }
+}
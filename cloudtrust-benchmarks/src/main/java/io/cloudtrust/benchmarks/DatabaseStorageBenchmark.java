@@ -0,0 +1,91 @@
+package io.cloudtrust.benchmarks;
+
+import io.cloudtrust.crypto.CryptoUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.IllegalBlockSizeException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the database storage operations of {@link CryptoUtil}: envelope encryption and decryption,
+ * decryption of legacy values (GCM data without envelope, clear text) and HMAC computation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DatabaseStorageBenchmark {
+    private static final String KEYS = "[{\"kid\": \"TEE_1\", \"value\": \"" + Base64.getEncoder().encodeToString(new byte[32]) + "\"}]";
+
+    @Param({"32", "256", "4096"})
+    private int size;
+
+    @Param({"default", "BC"})
+    private String provider;
+
+    private byte[] plainText;
+    private String plainString;
+    private String envelope;
+    private String legacyGcm;
+
+    @Setup(Level.Trial)
+    public void setup() throws BadPaddingException, IllegalBlockSizeException {
+        CryptoUtil.setCryptoProvider(Providers.fromName(provider));
+        CryptoUtil.getDatabaseEncryptionKeys().setSource(() -> KEYS);
+        CryptoUtil.getDatabaseHmacKeys().setSource(() -> KEYS);
+        char[] chars = new char[size];
+        Arrays.fill(chars, 'x');
+        plainString = new String(chars);
+        plainText = plainString.getBytes(StandardCharsets.UTF_8);
+        envelope = CryptoUtil.encryptForDatabaseStorage(plainText);
+        legacyGcm = CryptoUtil.gcmEncryptData(CryptoUtil.getDatabaseEncryptionKeys().get().getCurrentKey(), plainText);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        CryptoUtil.setCryptoProvider(null);
+    }
+
+    @Benchmark
+    public String encryptForDatabaseStorage() {
+        return CryptoUtil.encryptForDatabaseStorage(plainText);
+    }
+
+    @Benchmark
+    public byte[] decryptFromDatabaseStorage() {
+        return CryptoUtil.decryptFromDatabaseStorage(envelope);
+    }
+
+    @Benchmark
+    public byte[] decryptLegacyGcmFromDatabaseStorage() {
+        return CryptoUtil.decryptFromDatabaseStorage(legacyGcm);
+    }
+
+    @Benchmark
+    public byte[] decryptLegacyClearTextFromDatabaseStorage() {
+        return CryptoUtil.decryptFromDatabaseStorage(plainString);
+    }
+
+    @Benchmark
+    public String computeHmacForDatabaseStorage() {
+        return CryptoUtil.computeHmacForDatabaseStorage(plainString);
+    }
+}
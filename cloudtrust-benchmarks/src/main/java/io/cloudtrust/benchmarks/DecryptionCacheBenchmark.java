@@ -0,0 +1,77 @@
+package io.cloudtrust.benchmarks;
+
+import io.cloudtrust.crypto.CryptoUtil;
+import io.cloudtrust.crypto.DecryptionCache;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of {@link CryptoUtil#decryptFromDatabaseStorage(String)} from several threads, each of them decrypting
+ * a working set of values with its thread-local cipher, with and without a {@link DecryptionCache} large enough to
+ * hold the whole working set.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class DecryptionCacheBenchmark {
+    private static final String KEYS = "[{\"kid\": \"TEE_1\", \"value\": \"" + Base64.getEncoder().encodeToString(new byte[32]) + "\"}]";
+    private static final int WORKING_SET = 1024;
+
+    @Param({"32", "1024"})
+    private int size;
+
+    @Param({"none", "cache"})
+    private String cache;
+
+    private String[] envelopes;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        CryptoUtil.getDatabaseEncryptionKeys().setSource(() -> KEYS);
+        envelopes = new String[WORKING_SET];
+        SecureRandom random = new SecureRandom();
+        for (int i = 0; i < WORKING_SET; i++) {
+            byte[] plainText = new byte[size];
+            random.nextBytes(plainText);
+            envelopes[i] = CryptoUtil.encryptForDatabaseStorage(plainText);
+        }
+        CryptoUtil.setDecryptionCache("cache".equals(cache) ? new DecryptionCache(4 * WORKING_SET, TimeUnit.MINUTES.toMillis(10)) : null);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        CryptoUtil.setDecryptionCache(null);
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int next;
+    }
+
+    @Benchmark
+    public byte[] decryptFromDatabaseStorage(Cursor cursor) {
+        String envelope = envelopes[cursor.next];
+        cursor.next = (cursor.next + 1) % WORKING_SET;
+        return CryptoUtil.decryptFromDatabaseStorage(envelope);
+    }
+}
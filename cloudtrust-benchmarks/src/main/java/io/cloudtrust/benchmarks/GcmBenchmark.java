@@ -0,0 +1,78 @@
+package io.cloudtrust.benchmarks;
+
+import io.cloudtrust.crypto.CryptoUtil;
+import io.cloudtrust.crypto.NonceGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the AES/GCM primitives of {@link CryptoUtil}, per payload size, crypto provider and nonce strategy.
+ * The default provider (SunJCE on a stock JDK) is compared with Bouncy Castle, see {@link Providers}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GcmBenchmark {
+    @Param({"32", "1024", "65536"})
+    private int size;
+
+    @Param({"default", "BC"})
+    private String provider;
+
+    @Param({"random", "counter"})
+    private String nonce;
+
+    private SecretKey secretKey;
+    private byte[] plainText;
+    private String encrypted;
+
+    @Setup(Level.Trial)
+    public void setup() throws NoSuchAlgorithmException, BadPaddingException, IllegalBlockSizeException {
+        CryptoUtil.setCryptoProvider(Providers.fromName(provider));
+        CryptoUtil.setNonceGenerator(NonceGenerator.fromName(nonce));
+        KeyGenerator keyGen = KeyGenerator.getInstance("AES");
+        keyGen.init(256);
+        secretKey = keyGen.generateKey();
+        plainText = new byte[size];
+        new SecureRandom().nextBytes(plainText);
+        encrypted = CryptoUtil.gcmEncryptData(secretKey, plainText);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        CryptoUtil.setCryptoProvider(null);
+        CryptoUtil.setNonceGenerator(null);
+    }
+
+    @Benchmark
+    public String gcmEncrypt() throws BadPaddingException, IllegalBlockSizeException {
+        return CryptoUtil.gcmEncryptData(secretKey, plainText);
+    }
+
+    @Benchmark
+    public byte[] gcmDecrypt() throws BadPaddingException, IllegalBlockSizeException {
+        return CryptoUtil.gcmDecryptData(secretKey, encrypted);
+    }
+}
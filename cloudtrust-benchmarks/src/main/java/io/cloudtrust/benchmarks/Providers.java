@@ -0,0 +1,23 @@
+package io.cloudtrust.benchmarks;
+
+import io.cloudtrust.crypto.CryptoProvider;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+
+import java.security.Security;
+
+/**
+ * Selection of the crypto provider benchmarked: "default" is the first JCA provider supporting the algorithms
+ * (SunJCE on a stock JDK), "BC" is Bouncy Castle, registered on demand.
+ */
+final class Providers {
+    //Avoid class instantiation
+    private Providers() {
+    }
+
+    static CryptoProvider fromName(String name) {
+        if (BouncyCastleProvider.PROVIDER_NAME.equals(name) && Security.getProvider(name) == null) {
+            Security.addProvider(new BouncyCastleProvider());
+        }
+        return CryptoProvider.fromName(name);
+    }
+}
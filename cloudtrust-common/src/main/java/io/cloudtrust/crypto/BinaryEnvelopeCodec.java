@@ -0,0 +1,65 @@
+package io.cloudtrust.crypto;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Encoder/decoder of the compact binary envelope: marker (0x00), version (0x01), kid length (1 byte),
+ * kid (UTF-8) followed by the payload (IV and ciphertext).
+ * The leading 0x00 byte never appears in a JSON envelope nor in base64 or textual legacy values.
+ */
+final class BinaryEnvelopeCodec {
+    private static final byte MARKER = 0x00;
+    private static final byte VERSION = 0x01;
+    private static final int MAX_KID_LENGTH = 255;
+
+    //Avoid class instantiation
+    private BinaryEnvelopeCodec() {
+    }
+
+    /**
+     * Allocates a buffer for an envelope and writes its header
+     *
+     * @param kid           Key identifier
+     * @param payloadLength Size of the payload which will follow the header
+     * @return a heap buffer positioned right after the header
+     */
+    static ByteBuffer allocate(String kid, int payloadLength) {
+        byte[] kidBytes = kid.getBytes(StandardCharsets.UTF_8);
+        if (kidBytes.length > MAX_KID_LENGTH) {
+            throw new IllegalArgumentException("Key identifier is too long for a binary envelope: " + kid);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(3 + kidBytes.length + payloadLength);
+        buffer.put(MARKER).put(VERSION).put((byte) kidBytes.length).put(kidBytes);
+        return buffer;
+    }
+
+    /**
+     * @param data Value read from the database
+     * @return true if the value is a binary envelope
+     */
+    static boolean isBinaryEnvelope(byte[] data) {
+        return data != null && data.length >= 3 && data[0] == MARKER && data[1] == VERSION;
+    }
+
+    /**
+     * @param data A binary envelope
+     * @return the key identifier of the envelope
+     */
+    static String kid(byte[] data) {
+        int kidLength = data[2] & 0xFF;
+        if (data.length < 3 + kidLength) {
+            throw new IllegalArgumentException("Binary envelope is truncated");
+        }
+        return new String(data, 3, kidLength, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param data A binary envelope
+     * @return the payload of the envelope
+     */
+    static ByteBuffer payload(byte[] data) {
+        int offset = 3 + (data[2] & 0xFF);
+        return ByteBuffer.wrap(data, offset, data.length - offset);
+    }
+}
@@ -0,0 +1,127 @@
+package io.cloudtrust.crypto;
+
+import io.cloudtrust.exception.CloudtrustRuntimeException;
+
+import javax.crypto.SecretKey;
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Compact keyed-HMAC index of protected values, computed with subkeys derived with HKDF from the current key of the
+ * DB_HMAC_KEY key ring, so that index tokens are independent of {@link CryptoUtil#computeHmacForDatabaseStorage(String)}.
+ * Digests are truncated to a configurable length and can be stored as bytes or as Base64URL strings.
+ * Equality index, prefix tokens and n-gram tokens are computed with distinct subkeys, so that a token of one kind
+ * never matches a token of another kind.
+ * As digests are truncated, a lookup may return false positives which have to be filtered once decrypted.
+ */
+public class BlindIndex {
+    public static final int MIN_LENGTH = 4;
+    public static final int MAX_LENGTH = 64; // HMAC-SHA512 output size
+
+    private static final String VALUE_PURPOSE = "blind-index:value";
+    private static final String PREFIX_PURPOSE = "blind-index:prefix";
+    private static final String NGRAM_PURPOSE = "blind-index:ngram";
+
+    private final int length;
+
+    /**
+     * Constructor
+     *
+     * @param length Length of the digests in bytes, between {@link #MIN_LENGTH} and {@link #MAX_LENGTH}
+     */
+    public BlindIndex(int length) {
+        if (length < MIN_LENGTH || length > MAX_LENGTH) {
+            throw new IllegalArgumentException("Blind index length must be between " + MIN_LENGTH + " and " + MAX_LENGTH);
+        }
+        this.length = length;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * @param value The value to index
+     * @return the truncated digest of the value
+     */
+    public byte[] computeBytes(String value) {
+        return digest(VALUE_PURPOSE, value);
+    }
+
+    /**
+     * @param value The value to index
+     * @return the truncated digest of the value, encoded in Base64URL without padding
+     */
+    public String compute(String value) {
+        return encode(computeBytes(value));
+    }
+
+    /**
+     * Computes the token used to search the values starting with the given prefix
+     *
+     * @param prefix The searched prefix
+     * @return the prefix token, encoded in Base64URL without padding
+     */
+    public String computePrefix(String prefix) {
+        return encode(digest(PREFIX_PURPOSE, prefix));
+    }
+
+    /**
+     * Computes the tokens to store for a value so that it can be searched by prefix: one token for each prefix
+     * having at least minLength characters
+     *
+     * @param value     The value to index
+     * @param minLength Minimum length of a searchable prefix
+     * @return the prefix tokens, from the shortest prefix to the whole value
+     */
+    public Set<String> prefixTokens(String value, int minLength) {
+        Set<String> res = new LinkedHashSet<>();
+        int count = value.codePointCount(0, value.length());
+        for (int i = Math.max(minLength, 1); i <= count; i++) {
+            res.add(computePrefix(value.substring(0, value.offsetByCodePoints(0, i))));
+        }
+        return res;
+    }
+
+    /**
+     * Computes the tokens of all the n-grams of a value. A value contains a searched string if its tokens contain
+     * all the n-gram tokens of the searched string.
+     *
+     * @param value The value to index or the searched string
+     * @param n     Number of characters of the n-grams
+     * @return the n-gram tokens
+     */
+    public Set<String> ngramTokens(String value, int n) {
+        if (n <= 0) {
+            throw new IllegalArgumentException("n-gram size must be positive");
+        }
+        Set<String> res = new LinkedHashSet<>();
+        int count = value.codePointCount(0, value.length());
+        for (int i = 0; i + n <= count; i++) {
+            int start = value.offsetByCodePoints(0, i);
+            int end = value.offsetByCodePoints(start, n);
+            res.add(encode(digest(NGRAM_PURPOSE, value.substring(start, end))));
+        }
+        return res;
+    }
+
+    private byte[] digest(String purpose, String value) {
+        try {
+            KeyEntry hmacKey = CryptoUtil.getDatabaseHmacKeys().get().getCurrent();
+            SecretKey subkey = CryptoUtil.hmacSubkey(hmacKey.kid, hmacKey.key, purpose);
+            byte[] mac = HmacEngine.current().compute(hmacKey.kid + "/" + purpose, subkey, value.getBytes(StandardCharsets.UTF_8));
+            return mac.length == length ? mac : Arrays.copyOf(mac, length);
+        } catch (NoSuchAlgorithmException | InvalidKeyException e) {
+            throw new CloudtrustRuntimeException("Error while computing blind index", e);
+        }
+    }
+
+    private static String encode(byte[] digest) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(digest);
+    }
+}
@@ -0,0 +1,80 @@
+package io.cloudtrust.crypto;
+
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Nonces made of a counter starting at a random value: a random 32-bit prefix and a random 64-bit starting point,
+ * both drawn when the generator is created, followed by consecutive values of the 64-bit part. Generating a nonce is
+ * a single atomic increment, and a generator never returns the same nonce twice.
+ * <p>
+ * This is not the deterministic construction of NIST SP 800-38D (8.2.1), which requires a fixed field identifying
+ * each device uniquely and an invocation counter which is never reset: generators of different JVMs, nodes or
+ * restarts use random starting points. Two generators only collide if their ranges of nonces overlap, i.e. with a
+ * probability of about 2 * n / 2^96 per pair of generators for n nonces each, which is lower than the collision
+ * probability of random nonces. The total number of encryptions per key should still stay within the limits given
+ * for random IVs (8.3).
+ * <p>
+ * After the maximum number of nonces, a new random prefix and starting point are drawn instead of wrapping around to
+ * the nonces already used.
+ */
+final class CounterNonceGenerator implements NonceGenerator {
+    static final long MAX_NONCES_PER_PREFIX = Long.MAX_VALUE;
+
+    private static final int COUNTER_SIZE = 8;
+
+    private final SecureRandom secureRandom = new SecureRandom();
+    private final long maxNonces;
+    private volatile State state;
+
+    CounterNonceGenerator(long maxNonces) {
+        this.maxNonces = maxNonces;
+        this.state = newState();
+    }
+
+    @Override
+    public void nextNonce(byte[] nonce) {
+        if (nonce.length != GcmEngine.IV_SIZE) {
+            throw new IllegalArgumentException("Nonce must be " + GcmEngine.IV_SIZE + " bytes long");
+        }
+        State current = state;
+        long issued = current.issued.getAndIncrement();
+        while (issued < 0 || issued >= maxNonces) {
+            current = renew(current);
+            issued = current.issued.getAndIncrement();
+        }
+        // unsigned addition: the 64-bit part wraps around, but never comes back to its starting point
+        long counter = current.start + issued;
+        int prefixLength = current.prefix.length;
+        System.arraycopy(current.prefix, 0, nonce, 0, prefixLength);
+        for (int i = nonce.length - 1; i >= prefixLength; i--) {
+            nonce[i] = (byte) counter;
+            counter >>>= 8;
+        }
+    }
+
+    private synchronized State renew(State exhausted) {
+        if (state == exhausted) {
+            // all the nonces of the range have been used: draw a new range
+            state = newState();
+        }
+        return state;
+    }
+
+    private State newState() {
+        byte[] prefix = new byte[GcmEngine.IV_SIZE - COUNTER_SIZE];
+        secureRandom.nextBytes(prefix);
+        return new State(prefix, secureRandom.nextLong());
+    }
+
+    private static class State {
+        private final byte[] prefix;
+        private final long start;
+        private final AtomicLong issued = new AtomicLong();
+
+        private State(byte[] prefix, long start) {
+            this.prefix = prefix;
+            this.start = start;
+        }
+    }
+}
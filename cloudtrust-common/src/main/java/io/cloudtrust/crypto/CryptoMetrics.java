@@ -0,0 +1,81 @@
+package io.cloudtrust.crypto;
+
+/**
+ * Instrumentation of the database storage operations of {@link CryptoUtil}, registered with
+ * {@link CryptoUtil#setCryptoMetrics(CryptoMetrics)}. Implementations must be thread safe and fast: they are called
+ * on every operation. When {@link #isEnabled()} returns false, operations are not timed at all.
+ * <p>
+ * {@link SimpleCryptoMetrics} keeps the values in memory. A bridge to Micrometer only needs to implement this
+ * interface, e.g.
+ * <pre>
+ * public void recordSuccess(Operation operation, String kid, long durationNanos) {
+ *     Timer.builder("cloudtrust.crypto").tag("operation", operation.name()).tag("kid", kid)
+ *             .publishPercentileHistogram().register(registry).record(durationNanos, TimeUnit.NANOSECONDS);
+ * }
+ *
+ * public void recordFailure(Operation operation, String kid) {
+ *     registry.counter("cloudtrust.crypto.failures", "operation", operation.name(), "kid", kid).increment();
+ * }
+ *
+ * public void recordLegacyFallback(boolean clearText) {
+ *     registry.counter("cloudtrust.crypto.legacy", "clearText", String.valueOf(clearText)).increment();
+ * }
+ * </pre>
+ */
+public interface CryptoMetrics {
+    /**
+     * Metrics doing nothing, used by default
+     */
+    CryptoMetrics NOOP = new CryptoMetrics() {
+        @Override
+        public boolean isEnabled() {
+            return false;
+        }
+
+        @Override
+        public void recordSuccess(Operation operation, String kid, long durationNanos) {
+            // disabled
+        }
+
+        @Override
+        public void recordFailure(Operation operation, String kid) {
+            // disabled
+        }
+
+        @Override
+        public void recordLegacyFallback(boolean clearText) {
+            // disabled
+        }
+    };
+
+    enum Operation {
+        ENCRYPT, DECRYPT, HMAC
+    }
+
+    /**
+     * @return false if the operations should not be timed nor recorded
+     */
+    default boolean isEnabled() {
+        return true;
+    }
+
+    /**
+     * @param operation     The operation
+     * @param kid           Identifier of the key used by the operation
+     * @param durationNanos Duration of the operation, in nanoseconds
+     */
+    void recordSuccess(Operation operation, String kid, long durationNanos);
+
+    /**
+     * @param operation The operation
+     * @param kid       Identifier of the key used by the operation, or the missing key
+     */
+    void recordFailure(Operation operation, String kid);
+
+    /**
+     * Records the decryption of a value stored without envelope
+     *
+     * @param clearText false if the value could be decrypted with one of the keys, true if it is considered as clear text
+     */
+    void recordLegacyFallback(boolean clearText);
+}
@@ -0,0 +1,78 @@
+package io.cloudtrust.crypto;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.NoSuchPaddingException;
+import java.security.NoSuchAlgorithmException;
+import java.security.Provider;
+import java.security.Security;
+import java.util.ServiceLoader;
+
+/**
+ * Creates the Cipher and Mac instances used by {@link CryptoUtil}, {@link BlindIndex} and {@link GcmStreamCipher}.
+ * <p>
+ * Implementations can be registered with {@link CryptoUtil#setCryptoProvider(CryptoProvider)} or declared in
+ * META-INF/services/io.cloudtrust.crypto.CryptoProvider and selected by name, see {@link #fromName(String)}.
+ * Each thread creates its Cipher and Mac instances once and reuses them, so implementations are not on the hot path.
+ */
+public interface CryptoProvider {
+    /**
+     * @return the name of the provider
+     */
+    String getName();
+
+    /**
+     * @param transformation Transformation, e.g. AES/GCM/NoPadding
+     * @return a new Cipher
+     * @throws NoSuchAlgorithmException if the transformation is not supported
+     * @throws NoSuchPaddingException   if the padding is not supported
+     */
+    Cipher createCipher(String transformation) throws NoSuchAlgorithmException, NoSuchPaddingException;
+
+    /**
+     * @param algorithm Algorithm, e.g. HmacSHA512
+     * @return a new Mac
+     * @throws NoSuchAlgorithmException if the algorithm is not supported
+     */
+    Mac createMac(String algorithm) throws NoSuchAlgorithmException;
+
+    /**
+     * @return the provider using the JCE defaults
+     */
+    static CryptoProvider jce() {
+        return JceCryptoProvider.DEFAULT;
+    }
+
+    /**
+     * @param providerName Name of a JCA provider installed in the JVM, e.g. SunJCE or BC
+     * @return a provider creating its instances from the given JCA provider
+     * @throws IllegalStateException if the JCA provider is not installed
+     */
+    static CryptoProvider jca(String providerName) {
+        Provider provider = Security.getProvider(providerName);
+        if (provider == null) {
+            throw new IllegalStateException("Cannot find the security provider " + providerName);
+        }
+        return new JceCryptoProvider(provider);
+    }
+
+    /**
+     * Finds a provider by name: providers declared as services are looked up first, then the JCA providers
+     * installed in the JVM.
+     *
+     * @param name Name of the provider. Null or empty for the JCE defaults
+     * @return the provider
+     * @throws IllegalStateException if no provider has this name
+     */
+    static CryptoProvider fromName(String name) {
+        if (name == null || name.trim().isEmpty() || JceCryptoProvider.DEFAULT.getName().equals(name.trim())) {
+            return jce();
+        }
+        for (CryptoProvider provider : ServiceLoader.load(CryptoProvider.class)) {
+            if (name.trim().equals(provider.getName())) {
+                return provider;
+            }
+        }
+        return jca(name.trim());
+    }
+}
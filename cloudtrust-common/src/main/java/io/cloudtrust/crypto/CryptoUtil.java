@@ -1,29 +1,25 @@
 package io.cloudtrust.crypto;
 
-import com.fasterxml.jackson.annotation.JsonCreator;
-import com.fasterxml.jackson.annotation.JsonProperty;
-import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import io.cloudtrust.crypto.CryptoMetrics.Operation;
 import io.cloudtrust.exception.CloudtrustRuntimeException;
+import io.cloudtrust.json.JsonUtil;
 
 import javax.crypto.BadPaddingException;
-import javax.crypto.Cipher;
 import javax.crypto.IllegalBlockSizeException;
-import javax.crypto.Mac;
-import javax.crypto.NoSuchPaddingException;
 import javax.crypto.SecretKey;
-import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.ShortBufferException;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
-import java.security.SecureRandom;
 import java.util.Base64;
-import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
 import java.util.stream.Collectors;
 
 /**
@@ -33,20 +29,28 @@ public class CryptoUtil {
 
     private static final String DB_HMAC_KEY_ENV_VAR_NAME = "DB_HMAC_KEY";
     private static final String DB_ENCRYPTION_KEY_ENV_VAR_NAME = "DB_ENCRYPTION_KEY";
+    private static final String DB_ENCRYPTION_FORMAT_ENV_VAR_NAME = "DB_ENCRYPTION_FORMAT";
+    private static final String CRYPTO_PROVIDER_ENV_VAR_NAME = "CRYPTO_PROVIDER";
+    private static final String GCM_NONCE_STRATEGY_ENV_VAR_NAME = "GCM_NONCE_STRATEGY";
 
-    private static final String AES_GCM_NOPADDING = "AES/GCM/NoPadding";
-    private static final String HMAC_SHA512 = "HmacSHA512";
-    private static final int IV_SIZE = 12; //size recommended by NIST
 
-    private static final TypeReference<List<AesKeyEntry>> aesKeysTypeRef = new TypeReference<List<AesKeyEntry>>() {
-    };
-    private static final TypeReference<List<HmacKeyEntry>> hmacKeysTypeRef = new TypeReference<List<HmacKeyEntry>>() {
-    };
+    private static final ObjectReader aesKeysReader = JsonUtil.readerFor(new TypeReference<List<AesKeyEntry>>() {
+    });
+    private static final ObjectReader hmacKeysReader = JsonUtil.readerFor(new TypeReference<List<HmacKeyEntry>>() {
+    });
 
-    private static KeyEntry CURRENT_DB_HMAC_KEY;
-    private static Map<String, SecretKey> HISTORY_DB_HMAC_KEY;
-    private static KeyEntry CURRENT_DB_ENCRYPTION_KEY;
-    private static Map<String, SecretKey> HISTORY_DB_ENCRYPTION_KEY;
+    private static final ReloadableKeyRing DB_HMAC_KEYS = new ReloadableKeyRing(DB_HMAC_KEY_ENV_VAR_NAME,
+            KeySource.fromEnvironment(DB_HMAC_KEY_ENV_VAR_NAME), hmacKeysReader);
+    private static final ReloadableKeyRing DB_ENCRYPTION_KEYS = new ReloadableKeyRing(DB_ENCRYPTION_KEY_ENV_VAR_NAME,
+            KeySource.fromEnvironment(DB_ENCRYPTION_KEY_ENV_VAR_NAME), aesKeysReader);
+    private static final DerivedKeyCache DERIVED_KEYS = new DerivedKeyCache();
+    private static final DerivedKeyCache DERIVED_HMAC_KEYS = new DerivedKeyCache();
+
+    private static volatile EnvelopeFormat databaseStorageFormat;
+    private static volatile DecryptionCache decryptionCache;
+    private static volatile CryptoProvider cryptoProvider;
+    private static volatile NonceGenerator nonceGenerator;
+    private static volatile CryptoMetrics metrics = CryptoMetrics.NOOP;
 
     //Avoid class instantiation
     private CryptoUtil() {
@@ -75,19 +79,9 @@ public class CryptoUtil {
      * @throws IllegalBlockSizeException thrown if there's a problem with the submitted data
      */
     public static String gcmEncryptData(SecretKey aesKey, byte[] data) throws BadPaddingException, IllegalBlockSizeException {
-        SecureRandom sr = new SecureRandom();
-        byte[] iv = new byte[IV_SIZE];
-        sr.nextBytes(iv);
         try {
-            final Cipher cipher = Cipher.getInstance(AES_GCM_NOPADDING);
-            GCMParameterSpec parameterSpec = new GCMParameterSpec(128, iv);
-            cipher.init(Cipher.ENCRYPT_MODE, aesKey, parameterSpec);
-            byte[] cipheredText = cipher.doFinal(data);
-            ByteBuffer gcmData = ByteBuffer.allocate(iv.length + cipheredText.length);
-            gcmData.put(iv);
-            gcmData.put(cipheredText);
-            return Base64.getEncoder().encodeToString(gcmData.array());
-        } catch (InvalidKeyException | InvalidAlgorithmParameterException | NoSuchAlgorithmException | NoSuchPaddingException e) {
+            return Base64.getEncoder().encodeToString(GcmEngine.current().encrypt(aesKey, data));
+        } catch (InvalidKeyException | InvalidAlgorithmParameterException e) {
             throw new IllegalStateException("Error in the gcm encryption algorithm parameters", e);
         }
     }
@@ -105,21 +99,70 @@ public class CryptoUtil {
         if (encryptedData == null) {
             return null;
         }
-        ByteBuffer gcmData = ByteBuffer.wrap(Base64.getDecoder().decode(encryptedData));
-        byte[] iv = new byte[IV_SIZE];
-        gcmData.get(iv);
-        byte[] cipheredText = new byte[gcmData.remaining()];
-        gcmData.get(cipheredText);
         try {
-            Cipher cipher = Cipher.getInstance(AES_GCM_NOPADDING);
-            GCMParameterSpec parameterSpec = new GCMParameterSpec(128, iv);
-            cipher.init(Cipher.DECRYPT_MODE, aesKey, parameterSpec);
-            return cipher.doFinal(cipheredText);
-        } catch (InvalidKeyException | InvalidAlgorithmParameterException | NoSuchAlgorithmException | NoSuchPaddingException e) {
+            return GcmEngine.current().decrypt(aesKey, Base64.getDecoder().decode(encryptedData));
+        } catch (InvalidKeyException | InvalidAlgorithmParameterException e) {
             throw new IllegalStateException("Error in the gcm decryption algorithm parameters", e);
         }
     }
 
+    /**
+     * Encrypts the remaining bytes of a buffer with the AES/GCM/NoPadding algorithm, without any intermediate copy
+     * of the data. Buffers can be direct buffers.
+     *
+     * @param aesKey The AES secret key to encrypt the data
+     * @param input  The bytes to encrypt, from the buffer position to its limit. The position is moved to the limit.
+     * @param output Receives the IV followed by the encrypted data. Needs at least
+     *               {@link #gcmEncryptedSize(int)} remaining bytes.
+     * @return The number of bytes written in the output buffer
+     * @throws BadPaddingException       thrown if there's a problem with the submitted data
+     * @throws IllegalBlockSizeException thrown if there's a problem with the submitted data
+     * @throws ShortBufferException      thrown if the output buffer is too small
+     */
+    public static int gcmEncrypt(SecretKey aesKey, ByteBuffer input, ByteBuffer output) throws BadPaddingException, IllegalBlockSizeException, ShortBufferException {
+        try {
+            return GcmEngine.current().encrypt(aesKey, input, output);
+        } catch (InvalidKeyException | InvalidAlgorithmParameterException e) {
+            throw new IllegalStateException("Error in the gcm encryption algorithm parameters", e);
+        }
+    }
+
+    /**
+     * Decrypts the remaining bytes of a buffer with the AES/GCM/NoPadding algorithm, without any intermediate copy
+     * of the data. Buffers can be direct buffers.
+     *
+     * @param aesKey The AES secret key used to encrypt the data
+     * @param input  The IV followed by the encrypted data, from the buffer position to its limit
+     * @param output Receives the decrypted data. Needs at least {@link #gcmDecryptedSize(int)} remaining bytes.
+     * @return The number of bytes written in the output buffer
+     * @throws BadPaddingException       thrown if there's a problem with the submitted data
+     * @throws IllegalBlockSizeException thrown if there's a problem with the submitted data
+     * @throws ShortBufferException      thrown if the output buffer is too small
+     */
+    public static int gcmDecrypt(SecretKey aesKey, ByteBuffer input, ByteBuffer output) throws BadPaddingException, IllegalBlockSizeException, ShortBufferException {
+        try {
+            return GcmEngine.current().decrypt(aesKey, input, output);
+        } catch (InvalidKeyException | InvalidAlgorithmParameterException e) {
+            throw new IllegalStateException("Error in the gcm decryption algorithm parameters", e);
+        }
+    }
+
+    /**
+     * @param plainTextLength Number of bytes to encrypt
+     * @return The number of bytes produced by {@link #gcmEncrypt(SecretKey, ByteBuffer, ByteBuffer)}
+     */
+    public static int gcmEncryptedSize(int plainTextLength) {
+        return GcmEngine.IV_SIZE + plainTextLength + GcmEngine.TAG_LENGTH_BITS / 8;
+    }
+
+    /**
+     * @param encryptedLength Number of bytes to decrypt
+     * @return The number of bytes produced by {@link #gcmDecrypt(SecretKey, ByteBuffer, ByteBuffer)}
+     */
+    public static int gcmDecryptedSize(int encryptedLength) {
+        return Math.max(0, encryptedLength - GcmEngine.IV_SIZE - GcmEngine.TAG_LENGTH_BITS / 8);
+    }
+
     /**
      * Decrypts the given String with the AES/GCM/NoPadding algorithm.
      *
@@ -140,138 +183,551 @@ public class CryptoUtil {
      * @return base64 representation of the encrypted data
      */
     public static String encryptForDatabaseStorage(byte[] data) {
+        return encryptForDatabaseStorage(DB_ENCRYPTION_KEYS.get().getCurrent(), data);
+    }
+
+    /**
+     * Encrypt data that are meant to be stored encrypted into the database, with a subkey dedicated to a purpose.
+     * The subkey is derived from the current encryption key with HKDF-SHA256 and cached. The purpose is stored in the
+     * encrypted structure, so that the data can also be decrypted by {@link #decryptFromDatabaseStorage(String)} and
+     * re-encrypted by {@link #reencryptForDatabaseStorage(String)}.
+     *
+     * @param purpose class of the data, e.g. email, phone or document
+     * @param data    data to be encrypted
+     * @return base64 representation of the encrypted data
+     */
+    public static String encryptForDatabaseStorage(String purpose, byte[] data) {
+        return encryptForDatabaseStorage(DB_ENCRYPTION_KEYS.get().getCurrent(), purpose, data);
+    }
+
+    /**
+     * Decrypt data encrypted by {@link #encryptForDatabaseStorage(String, byte[])}. Encrypted structures without purpose,
+     * e.g. written before the data were encrypted for a purpose, are decrypted with the key itself.
+     *
+     * @param purpose class of the data, as given when the data has been encrypted
+     * @param data    data to be decrypted
+     * @return decrypted data, or null if the provided data is null
+     * @throws IllegalArgumentException if the data is not an encrypted structure or was encrypted for another purpose
+     */
+    public static byte[] decryptFromDatabaseStorage(String purpose, String data) {
+        if (data == null) {
+            return null;
+        }
+        EncryptedData encData = EncryptedDataCodec.decode(data);
+        if (encData == null) {
+            throw new IllegalArgumentException("Data is not an encrypted structure");
+        }
+        if (encData.purpose != null && !encData.purpose.equals(purpose)) {
+            throw new IllegalArgumentException("Data has been encrypted for another purpose");
+        }
+        // structures without purpose are encrypted with the key itself
+        return decryptEnvelope(DB_ENCRYPTION_KEYS.get(), encData);
+    }
+
+    /**
+     * Encrypt a batch of data that are meant to be stored encrypted into the database
+     *
+     * @param data list of data to be encrypted
+     * @return the encrypted data, in the same order as the input
+     */
+    public static List<String> encryptAllForDatabaseStorage(List<byte[]> data) {
+        KeyEntry dbEncryptionKey = DB_ENCRYPTION_KEYS.get().getCurrent();
+        return data.stream().map(d -> encryptForDatabaseStorage(dbEncryptionKey, d)).collect(Collectors.toList());
+    }
+
+    /**
+     * Encrypt a batch of data that are meant to be stored encrypted into the database. The batch is split among
+     * the threads of the given pool, each of them reusing its own cipher.
+     *
+     * @param data list of data to be encrypted
+     * @param pool pool used to process the batch in parallel
+     * @return the encrypted data, in the same order as the input
+     */
+    public static List<String> encryptAllForDatabaseStorage(List<byte[]> data, ForkJoinPool pool) {
+        KeyEntry dbEncryptionKey = DB_ENCRYPTION_KEYS.get().getCurrent();
+        return pool.submit(() -> data.parallelStream()
+                .map(d -> encryptForDatabaseStorage(dbEncryptionKey, d))
+                .collect(Collectors.toList())).join();
+    }
+
+    static String encryptForDatabaseStorage(KeyEntry dbEncryptionKey, byte[] data) {
+        return encryptForDatabaseStorage(dbEncryptionKey, null, data);
+    }
+
+    private static String encryptForDatabaseStorage(KeyEntry keyEntry, String purpose, byte[] data) {
+        String kid = keyEntry.kid;
+        SecretKey dbEncryptionKey = purpose == null ? keyEntry.key : subkey(kid, keyEntry.key, purpose);
+        CryptoMetrics m = metrics;
+        long start = m.isEnabled() ? System.nanoTime() : 0L;
         try {
-            SecretKey dbEncryptionKey = getCtDatabaseEncryptionKey().key;
-            String encData = Base64.getEncoder().encodeToString(data);
+            String encData;
             if (dbEncryptionKey != null && !dbEncryptionKey.getAlgorithm().equals("NONE")) {
                 encData = gcmEncryptData(dbEncryptionKey, data);
+            } else {
+                encData = Base64.getEncoder().encodeToString(data);
             }
-            EncryptedData encryptedData = new EncryptedData(getCtDatabaseEncryptionKey().kid, encData);
-            return new ObjectMapper().writeValueAsString(encryptedData);
-        } catch (BadPaddingException | IllegalBlockSizeException | JsonProcessingException ex) {
+            String res = EncryptedDataCodec.encode(kid, purpose, encData);
+            recordSuccess(m, Operation.ENCRYPT, kid, start);
+            return res;
+        } catch (BadPaddingException | IllegalBlockSizeException ex) {
+            m.recordFailure(Operation.ENCRYPT, kid);
+            throw new IllegalArgumentException("Unexpected error while encrypting data for database storage", ex);
+        }
+    }
+
+    /**
+     * Encrypt data that are meant to be stored encrypted into a binary database column. The format of the result is
+     * given by {@link #getDatabaseStorageFormat()}.
+     *
+     * @param data data to be encrypted
+     * @return the encrypted data
+     */
+    public static byte[] encryptForBinaryDatabaseStorage(byte[] data) {
+        KeyEntry dbEncryptionKey = DB_ENCRYPTION_KEYS.get().getCurrent();
+        if (getDatabaseStorageFormat() == EnvelopeFormat.JSON) {
+            return encryptForDatabaseStorage(dbEncryptionKey, data).getBytes(StandardCharsets.UTF_8);
+        }
+        if (dbEncryptionKey.key == null || dbEncryptionKey.key.getAlgorithm().equals("NONE")) {
+            return BinaryEnvelopeCodec.allocate(dbEncryptionKey.kid, data.length).put(data).array();
+        }
+        CryptoMetrics m = metrics;
+        long start = m.isEnabled() ? System.nanoTime() : 0L;
+        ByteBuffer envelope = BinaryEnvelopeCodec.allocate(dbEncryptionKey.kid, gcmEncryptedSize(data.length));
+        try {
+            GcmEngine.current().encrypt(dbEncryptionKey.key, ByteBuffer.wrap(data), envelope);
+            recordSuccess(m, Operation.ENCRYPT, dbEncryptionKey.kid, start);
+            return envelope.array();
+        } catch (InvalidKeyException | InvalidAlgorithmParameterException e) {
+            m.recordFailure(Operation.ENCRYPT, dbEncryptionKey.kid);
+            throw new IllegalStateException("Error in the gcm encryption algorithm parameters", e);
+        } catch (BadPaddingException | IllegalBlockSizeException | ShortBufferException ex) {
+            m.recordFailure(Operation.ENCRYPT, dbEncryptionKey.kid);
             throw new IllegalArgumentException("Unexpected error while encrypting data for database storage", ex);
         }
     }
 
+    /**
+     * Decrypt data that are stored encrypted into a binary database column. Both the binary envelope and the UTF-8
+     * bytes of the textual formats accepted by {@link #decryptFromDatabaseStorage(String)} are supported.
+     *
+     * @param data data to be decrypted
+     * @return decrypted data, or null if the provided data is null
+     */
+    public static byte[] decryptFromBinaryDatabaseStorage(byte[] data) {
+        if (data == null) {
+            return null;
+        }
+        if (!BinaryEnvelopeCodec.isBinaryEnvelope(data)) {
+            return decryptFromDatabaseStorage(new String(data, StandardCharsets.UTF_8));
+        }
+        CryptoMetrics m = metrics;
+        long start = m.isEnabled() ? System.nanoTime() : 0L;
+        String kid = BinaryEnvelopeCodec.kid(data);
+        ByteBuffer payload = BinaryEnvelopeCodec.payload(data);
+        SecretKey dbEncryptionKey = DB_ENCRYPTION_KEYS.get().getKey(kid);
+        if (dbEncryptionKey == null) {
+            m.recordFailure(Operation.DECRYPT, kid);
+            throw new IllegalStateException("Required key " + kid + " cannot be found");
+        }
+        if (dbEncryptionKey.getEncoded().length == 1) {
+            // empty key, no decryption necessary
+            byte[] res = new byte[payload.remaining()];
+            payload.get(res);
+            recordSuccess(m, Operation.DECRYPT, kid, start);
+            return res;
+        }
+        byte[] res = new byte[gcmDecryptedSize(payload.remaining())];
+        try {
+            GcmEngine.current().decrypt(dbEncryptionKey, payload, ByteBuffer.wrap(res));
+            recordSuccess(m, Operation.DECRYPT, kid, start);
+            return res;
+        } catch (InvalidKeyException | InvalidAlgorithmParameterException e) {
+            m.recordFailure(Operation.DECRYPT, kid);
+            throw new IllegalStateException("Error in the gcm decryption algorithm parameters", e);
+        } catch (BadPaddingException | IllegalBlockSizeException | ShortBufferException ex) {
+            m.recordFailure(Operation.DECRYPT, kid);
+            throw new IllegalArgumentException("Unexpected error while decrypting data from database storage", ex);
+        }
+    }
+
+    /**
+     * Format used by {@link #encryptForBinaryDatabaseStorage(byte[])}. By default, it is read from the
+     * DB_ENCRYPTION_FORMAT environment variable (json or binary) and is {@link EnvelopeFormat#JSON} if not defined.
+     *
+     * @return the format of the encrypted data
+     */
+    public static EnvelopeFormat getDatabaseStorageFormat() {
+        EnvelopeFormat format = databaseStorageFormat;
+        if (format == null) {
+            format = EnvelopeFormat.fromString(System.getenv(DB_ENCRYPTION_FORMAT_ENV_VAR_NAME));
+            databaseStorageFormat = format;
+        }
+        return format;
+    }
+
+    /**
+     * Overrides the format used by {@link #encryptForBinaryDatabaseStorage(byte[])}
+     *
+     * @param format the format of the encrypted data, null to use the DB_ENCRYPTION_FORMAT environment variable again
+     */
+    public static void setDatabaseStorageFormat(EnvelopeFormat format) {
+        databaseStorageFormat = format;
+    }
+
     /**
      * Decrypt data that are stored encrypted into the database
      *
      * @param data base64-encoded data to be decrypted
-     * @return decrypted data as a UTF-8 encoded String
+     * @return decrypted data as a UTF-8 encoded String, or null if the provided data is null
      */
     public static byte[] decryptFromDatabaseStorage(String data) {
+        if (data == null) {
+            return null;
+        }
+        return decryptFromDatabaseStorage(DB_ENCRYPTION_KEYS.get(), data);
+    }
+
+    static byte[] decryptFromDatabaseStorage(KeyRing keyRing, String data) {
+        if (data == null) {
+            return null;
+        }
+        DecryptionCache cache = decryptionCache;
+        if (cache == null) {
+            return decryptWithoutCache(keyRing, data);
+        }
+        byte[] res = cache.get(data);
+        if (res == null) {
+            res = decryptWithoutCache(keyRing, data);
+            cache.put(data, res);
+        }
+        return res;
+    }
+
+    /**
+     * Decrypt data stored into the database without going through the decryption cache, e.g. when migrating all
+     * the stored values, so that the cache keeps its working set and does not retain every decrypted value
+     */
+    static byte[] decryptWithoutCache(String data) {
+        return decryptWithoutCache(DB_ENCRYPTION_KEYS.get(), data);
+    }
+
+    private static byte[] decryptWithoutCache(KeyRing keyRing, String data) {
+        // parse json structure
+        EncryptedData encData = EncryptedDataCodec.decode(data);
+        if (encData == null) {
+            // legacy: support for missing structure
+            return decryptLegacyData(keyRing, data);
+        }
+        return decryptEnvelope(keyRing, encData);
+    }
+
+    /**
+     * Re-encrypt data stored into the database with the current encryption key. Legacy ciphertext (without
+     * structure) is decrypted with any of the keys and re-encrypted into an encrypted structure. Data encrypted for a
+     * purpose is re-encrypted with the subkey of the current key for the same purpose.
+     *
+     * @param data data stored encrypted into the database
+     * @return data encrypted with the current key, or null if the data is already encrypted with the current key
+     * or is not encrypted (legacy clear text)
+     */
+    public static String reencryptForDatabaseStorage(String data) {
+        if (data == null) {
+            return null;
+        }
+        KeyRing keyRing = DB_ENCRYPTION_KEYS.get();
+        EncryptedData encData = EncryptedDataCodec.decode(data);
+        if (encData == null) {
+            byte[] legacy = decryptLegacyGcm(keyRing, data);
+            return legacy == null ? null : encryptForDatabaseStorage(keyRing.getCurrent(), legacy);
+        }
+        if (keyRing.getCurrentKid().equals(encData.kid)) {
+            return null;
+        }
+        return encryptForDatabaseStorage(keyRing.getCurrent(), encData.purpose, decryptEnvelope(keyRing, encData));
+    }
+
+    static byte[] decryptEnvelope(KeyRing keyRing, EncryptedData encData) {
+        return decryptEnvelope(keyRing, encData, encData.purpose);
+    }
+
+    private static byte[] decryptEnvelope(KeyRing keyRing, EncryptedData encData, String purpose) {
+        CryptoMetrics m = metrics;
+        long start = m.isEnabled() ? System.nanoTime() : 0L;
         try {
-            // ensure keys are loaded
-            getCtDatabaseEncryptionKey();
-            // parse json structure
-            EncryptedData encData = new ObjectMapper().readValue(data, EncryptedData.class);
-            SecretKey dbEncryptionKey = HISTORY_DB_ENCRYPTION_KEY.get(encData.kid);
+            SecretKey dbEncryptionKey = keyRing.getKey(encData.kid);
             if (dbEncryptionKey == null) {
                 // key cannot be found
                 throw new IllegalStateException("Required key " + encData.kid + " cannot be found");
             }
+            if (purpose != null) {
+                dbEncryptionKey = subkey(encData.kid, dbEncryptionKey, purpose);
+            }
+            byte[] res;
             if (dbEncryptionKey.getEncoded().length == 1) {
                 // empty key, no decryption necessary
-                return Base64.getDecoder().decode(encData.val);
+                res = Base64.getDecoder().decode(encData.val);
+            } else {
+                res = gcmDecryptData(dbEncryptionKey, encData.val);
             }
-            return gcmDecryptData(dbEncryptionKey, encData.val);
+            recordSuccess(m, Operation.DECRYPT, encData.kid, start);
+            return res;
         } catch (BadPaddingException | IllegalBlockSizeException ex) {
+            m.recordFailure(Operation.DECRYPT, encData.kid);
             throw new IllegalArgumentException("Unexpected error while encrypting data for database storage", ex);
-        } catch (JsonProcessingException ex) {
-            // legacy: support for missing structure
-            // try to decrypt with the current key
+        } catch (RuntimeException ex) {
+            m.recordFailure(Operation.DECRYPT, encData.kid);
+            throw ex;
+        }
+    }
+
+    private static SecretKey subkey(String kid, SecretKey dbEncryptionKey, String purpose) {
+        if (dbEncryptionKey == null || dbEncryptionKey.getAlgorithm().equals("NONE")) {
+            // empty key, nothing to derive
+            return dbEncryptionKey;
+        }
+        return DERIVED_KEYS.get(kid, dbEncryptionKey, purpose);
+    }
+
+    /**
+     * Subkey of an HMAC key dedicated to a purpose, e.g. a blind index
+     */
+    static SecretKey hmacSubkey(String kid, SecretKey dbHmacKey, String purpose) {
+        return DERIVED_HMAC_KEYS.get(kid, dbHmacKey, purpose);
+    }
+
+    /**
+     * Decrypt a batch of data that are stored encrypted into the database
+     *
+     * @param data list of data to be decrypted
+     * @return the decrypted data, in the same order as the input
+     */
+    public static List<byte[]> decryptAllFromDatabaseStorage(List<String> data) {
+        // all the values of the batch are decrypted with the same keys, even if they are reloaded meanwhile
+        KeyRing keyRing = DB_ENCRYPTION_KEYS.get();
+        return data.stream().map(d -> decryptFromDatabaseStorage(keyRing, d)).collect(Collectors.toList());
+    }
+
+    /**
+     * Decrypt a batch of data that are stored encrypted into the database. The batch is split among the threads
+     * of the given pool, each of them reusing its own cipher.
+     *
+     * @param data list of data to be decrypted
+     * @param pool pool used to process the batch in parallel
+     * @return the decrypted data, in the same order as the input
+     */
+    public static List<byte[]> decryptAllFromDatabaseStorage(List<String> data, ForkJoinPool pool) {
+        KeyRing keyRing = DB_ENCRYPTION_KEYS.get();
+        return pool.submit(() -> data.parallelStream()
+                .map(d -> decryptFromDatabaseStorage(keyRing, d))
+                .collect(Collectors.toList())).join();
+    }
+
+    private static byte[] decryptLegacyData(KeyRing keyRing, String data) {
+        byte[] res = decryptLegacyGcm(keyRing, data);
+        if (res != null) {
+            metrics.recordLegacyFallback(false);
+            return res;
+        }
+        // assumes that the data is in clear
+        metrics.recordLegacyFallback(true);
+        return data.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Decrypts legacy ciphertext (base64 GCM data without structure), trying the current key first then the previous
+     * ones as the key used to encrypt it is unknown
+     *
+     * @return the decrypted data, or null if the data cannot be decrypted by any key
+     */
+    static byte[] decryptLegacyGcm(KeyRing keyRing, String data) {
+        if (!EncryptedDataCodec.isBase64GcmData(data)) {
+            return null;
+        }
+        for (String kid : keyRing.getKids()) {
+            SecretKey key = keyRing.getKey(kid);
+            if (key == null || key.getEncoded().length == 1) {
+                // empty key
+                continue;
+            }
             try {
-                SecretKey key = getCtDatabaseEncryptionKey().key;
                 return gcmDecryptData(key, data);
             } catch (BadPaddingException | IllegalBlockSizeException | RuntimeException exc) {
-                // if decryption fails, assumes that the data is in clear
-                return data.getBytes(StandardCharsets.UTF_8);
+                // try the next key
             }
         }
+        return null;
     }
 
     /**
      * Compute the HMAC of a given string.
-     * The key is taken from the DB_HMAC_KEY environment variable
+     * The key is taken from the HMAC key ring, loaded by default from the DB_HMAC_KEY environment variable
      *
      * @param input the string to HMAC
      * @return the HMAC value as a base64-encoded string
      */
     public static String computeHmacForDatabaseStorage(String input) {
+        KeyEntry dbHmacKey = DB_HMAC_KEYS.get().getCurrent();
+        return Base64.getEncoder().encodeToString(computeHmac(HmacEngine.current(), dbHmacKey.kid, dbHmacKey.key,
+                input.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Compute the HMAC of a given string with each of the HMAC keys, so that values hashed before a key rotation can
+     * still be found.
+     *
+     * @param input the string to HMAC
+     * @return the base64-encoded HMAC values by key identifier, computed with the current key first
+     */
+    public static Map<String, String> computeHmacsForDatabaseStorage(String input) {
+        KeyRing keyRing = DB_HMAC_KEYS.get();
+        byte[] data = input.getBytes(StandardCharsets.UTF_8);
+        HmacEngine engine = HmacEngine.current();
+        Map<String, String> res = new LinkedHashMap<>();
+        for (String kid : keyRing.getKids()) {
+            res.put(kid, Base64.getEncoder().encodeToString(computeHmac(engine, kid, keyRing.getKey(kid), data)));
+        }
+        return res;
+    }
+
+    private static byte[] computeHmac(HmacEngine engine, String kid, SecretKey key, byte[] data) {
+        CryptoMetrics m = metrics;
+        long start = m.isEnabled() ? System.nanoTime() : 0L;
         try {
-            SecretKey dbHmacKey = getCtDatabaseHmacKey().key;
-            Mac sha512Hmac = Mac.getInstance(HMAC_SHA512);
-            sha512Hmac.init(dbHmacKey);
-            byte[] macData = sha512Hmac.doFinal(input.getBytes(StandardCharsets.UTF_8));
-            return Base64.getEncoder().encodeToString(macData);
+            byte[] res = engine.compute(kid, key, data);
+            recordSuccess(m, Operation.HMAC, kid, start);
+            return res;
         } catch (NoSuchAlgorithmException | InvalidKeyException e) {
+            m.recordFailure(Operation.HMAC, kid);
             throw new CloudtrustRuntimeException("Error while computing HMAC for database storage", e);
         }
     }
 
-    private static KeyEntry getCtDatabaseEncryptionKey() {
-        try {
-            if (CURRENT_DB_ENCRYPTION_KEY == null) {
-                List<AesKeyEntry> keys = loadKeysFromEnvironment(DB_ENCRYPTION_KEY_ENV_VAR_NAME, aesKeysTypeRef);
-                if (keys.isEmpty()) {
-                    throw new IllegalStateException("Cannot find any appropriate key from environment variable " +
-                            DB_ENCRYPTION_KEY_ENV_VAR_NAME);
-                }
-                // sort list of keys according to indices (bigger to smaller, to have the latest first)
-                Collections.sort(keys);
-                CURRENT_DB_ENCRYPTION_KEY = keys.get(0);
-                HISTORY_DB_ENCRYPTION_KEY = keys.stream().collect(Collectors.toMap(KeyEntry::getKid, KeyEntry::getKey));
-            }
-            return CURRENT_DB_ENCRYPTION_KEY;
-        } catch (Exception ex) {
-            throw new IllegalStateException("Cannot load the " + DB_ENCRYPTION_KEY_ENV_VAR_NAME, ex);
+    private static void recordSuccess(CryptoMetrics m, Operation operation, String kid, long start) {
+        if (m.isEnabled()) {
+            m.recordSuccess(operation, kid, System.nanoTime() - start);
         }
     }
 
-    private static KeyEntry getCtDatabaseHmacKey() {
-        try {
-            if (CURRENT_DB_HMAC_KEY == null) {
-                List<HmacKeyEntry> keys = loadKeysFromEnvironment(DB_HMAC_KEY_ENV_VAR_NAME, hmacKeysTypeRef);
-                if (keys.isEmpty()) {
-                    throw new IllegalStateException("Cannot find an appropriate key from environment variable " +
-                            DB_HMAC_KEY_ENV_VAR_NAME);
+    /**
+     * Gives access to the keys used to encrypt data for database storage, e.g. to reload them after a rotation.
+     * By default, keys are loaded from the DB_ENCRYPTION_KEY environment variable.
+     *
+     * @return the encryption key ring
+     */
+    public static ReloadableKeyRing getDatabaseEncryptionKeys() {
+        return DB_ENCRYPTION_KEYS;
+    }
+
+    /**
+     * Gives access to the keys used to compute HMAC for database storage, e.g. to reload them after a rotation.
+     * By default, keys are loaded from the DB_HMAC_KEY environment variable.
+     *
+     * @return the HMAC key ring
+     */
+    public static ReloadableKeyRing getDatabaseHmacKeys() {
+        return DB_HMAC_KEYS;
+    }
+
+    /**
+     * Registers a cache of decrypted values, used by {@link #decryptFromDatabaseStorage(String)} to serve repeated
+     * decryptions of the same value from memory. No cache is used by default.
+     *
+     * @param cache the cache, or null to disable caching
+     */
+    public static void setDecryptionCache(DecryptionCache cache) {
+        DecryptionCache previous = decryptionCache;
+        decryptionCache = cache;
+        if (previous != null && previous != cache) {
+            previous.clear();
+        }
+    }
+
+    /**
+     * Provider of the Cipher and Mac instances. By default, it is selected by the CRYPTO_PROVIDER environment variable,
+     * see {@link CryptoProvider#fromName(String)}, and uses the JCE defaults if the variable is not defined.
+     *
+     * @return the crypto provider
+     * @throws IllegalStateException if the configured provider cannot be found
+     */
+    public static CryptoProvider getCryptoProvider() {
+        CryptoProvider provider = cryptoProvider;
+        if (provider == null) {
+            provider = CryptoProvider.fromName(System.getenv(CRYPTO_PROVIDER_ENV_VAR_NAME));
+            cryptoProvider = provider;
+        }
+        return provider;
+    }
+
+    /**
+     * Selects the provider of the Cipher and Mac instances. Each thread switches to the new provider on its next operation.
+     *
+     * @param provider the crypto provider, or null to use the CRYPTO_PROVIDER environment variable again
+     */
+    public static void setCryptoProvider(CryptoProvider provider) {
+        cryptoProvider = provider;
+    }
+
+    /**
+     * Generator of the GCM IVs. By default, it is selected by the GCM_NONCE_STRATEGY environment variable (random or
+     * counter, see {@link NonceGenerator#fromName(String)}) and draws random nonces if the variable is not defined.
+     *
+     * @return the nonce generator
+     */
+    public static NonceGenerator getNonceGenerator() {
+        NonceGenerator generator = nonceGenerator;
+        if (generator == null) {
+            synchronized (CryptoUtil.class) {
+                generator = nonceGenerator;
+                if (generator == null) {
+                    // a counter-based generator must be shared by all the threads
+                    generator = NonceGenerator.fromName(System.getenv(GCM_NONCE_STRATEGY_ENV_VAR_NAME));
+                    nonceGenerator = generator;
                 }
-                Collections.sort(keys);
-                CURRENT_DB_HMAC_KEY = keys.get(0); // take the most recent key (top-most one)
-                HISTORY_DB_HMAC_KEY = keys.stream().collect(Collectors.toMap(KeyEntry::getKid, KeyEntry::getKey));
             }
-            return CURRENT_DB_HMAC_KEY;
-        } catch (Exception ex) {
-            throw new IllegalStateException("Cannot load the " + DB_HMAC_KEY_ENV_VAR_NAME, ex);
         }
+        return generator;
     }
 
-    private static <T> T loadKeysFromEnvironment(String envVariableName, TypeReference<T> type) throws JsonProcessingException {
-        String keys = System.getenv(envVariableName); // each key is encoded in Base64
-        if (keys == null) {
-            throw new IllegalStateException("Cannot load the environment variable" + envVariableName);
-        }
-        return new ObjectMapper().readValue(keys, type);
+    /**
+     * Selects the generator of the GCM IVs
+     *
+     * @param generator the nonce generator, or null to use the GCM_NONCE_STRATEGY environment variable again
+     */
+    public static void setNonceGenerator(NonceGenerator generator) {
+        nonceGenerator = generator;
+    }
+
+    /**
+     * Registers the instrumentation of the database storage operations. No metrics are recorded by default.
+     *
+     * @param cryptoMetrics the metrics, or null to disable them
+     */
+    public static void setCryptoMetrics(CryptoMetrics cryptoMetrics) {
+        metrics = cryptoMetrics == null ? CryptoMetrics.NOOP : cryptoMetrics;
     }
 
     static class EncryptedData {
-        @JsonProperty("kid")
-        String kid;
-        @JsonProperty("val")
-        String val;
+        final String kid;
+        final String purpose;
+        final String val;
 
-        @JsonCreator
-        EncryptedData(@JsonProperty("kid") String kid, @JsonProperty("val") String val) {
+        EncryptedData(String kid, String purpose, String val) {
             this.kid = kid;
+            this.purpose = purpose;
             this.val = val;
         }
     }
 
     // package-protected method for clearing the keys, for test purpose
     static void clearKeys() {
-        CURRENT_DB_HMAC_KEY = null;
-        HISTORY_DB_HMAC_KEY = null;
-        CURRENT_DB_ENCRYPTION_KEY = null;
-        HISTORY_DB_ENCRYPTION_KEY = null;
+        DB_HMAC_KEYS.clear();
+        DB_ENCRYPTION_KEYS.clear();
+        databaseStorageFormat = null;
+        setDecryptionCache(null);
+        cryptoProvider = null;
+        nonceGenerator = null;
+        metrics = CryptoMetrics.NOOP;
+        DERIVED_KEYS.clear();
+        DERIVED_HMAC_KEYS.clear();
     }
 }
@@ -0,0 +1,30 @@
+package io.cloudtrust.crypto;
+
+/**
+ * Persistence of the wrapped data keys used by {@link EnvelopeEncryption}, one per realm.
+ * Implementations must be thread safe.
+ */
+public interface DataKeyStore {
+    /**
+     * @param realmId Realm identifier
+     * @return the wrapped data key of the realm, or null if the realm has no data key yet
+     */
+    String load(String realmId);
+
+    /**
+     * Stores the wrapped data key of a realm unless the realm already has one, e.g. created concurrently by another node.
+     *
+     * @param realmId    Realm identifier
+     * @param wrappedKey Wrapped data key
+     * @return the wrapped data key of the realm after the call: the given one, or the one which was already stored
+     */
+    String storeIfAbsent(String realmId, String wrappedKey);
+
+    /**
+     * Replaces the wrapped data key of a realm, after it has been re-wrapped with another master key
+     *
+     * @param realmId    Realm identifier
+     * @param wrappedKey Wrapped data key
+     */
+    void replace(String realmId, String wrappedKey);
+}
@@ -0,0 +1,212 @@
+package io.cloudtrust.crypto;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Bounded and time-limited cache of decrypted values, used by {@link CryptoUtil#decryptFromDatabaseStorage(String)}
+ * once registered with {@link CryptoUtil#setDecryptionCache(DecryptionCache)}.
+ * <p>
+ * Entries are keyed by the SHA-256 digest of the encrypted value, so that large ciphertexts are not retained, and
+ * spread over segments, each of them with its own lock and its own least recently used eviction, so that concurrent
+ * decryptions do not contend on a single lock. Small caches have a single segment and thus an exact LRU eviction.
+ * <p>
+ * Plaintext values are copied in and out of the cache and are overwritten with zeros when they are evicted or
+ * removed. Expired values are removed when they are read and by a sweep of their segment, run when the segment is
+ * accessed at most once per quarter of the time to live. Values of a segment which is no longer accessed are only
+ * removed by {@link #purgeExpired()} or {@link #clear()}.
+ */
+public class DecryptionCache {
+    private static final String SHA_256 = "SHA-256";
+    private static final ThreadLocal<MessageDigest> DIGESTS = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance(SHA_256);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Cannot create a " + SHA_256 + " digest", e);
+        }
+    });
+    private static final int MAX_SEGMENTS = 16;
+    private static final int MIN_SEGMENT_ENTRIES = 64;
+
+    private final long ttlNanos;
+    private final LongSupplier clock;
+    private final Segment[] segments;
+
+    /**
+     * Constructor
+     *
+     * @param maxEntries Maximum number of decrypted values kept in memory
+     * @param ttlMillis  Time to live of a decrypted value, in milliseconds
+     */
+    public DecryptionCache(int maxEntries, long ttlMillis) {
+        this(maxEntries, ttlMillis, System::nanoTime);
+    }
+
+    DecryptionCache(int maxEntries, long ttlMillis, LongSupplier clock) {
+        if (maxEntries < 1 || ttlMillis < 1) {
+            throw new IllegalArgumentException("Cache size and time to live must be positive");
+        }
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        this.clock = clock;
+        // power of two, so that a segment is selected by masking the hash
+        int count = Integer.highestOneBit(Math.max(1, Math.min(MAX_SEGMENTS, maxEntries / MIN_SEGMENT_ENTRIES)));
+        this.segments = new Segment[count];
+        for (int i = 0; i < count; i++) {
+            // the first segments take the remainder
+            segments[i] = new Segment(maxEntries / count + (i < maxEntries % count ? 1 : 0), clock.getAsLong() + ttlNanos / 4);
+        }
+    }
+
+    /**
+     * @param encryptedData Encrypted value
+     * @return a copy of the decrypted value, or null if it is not in the cache or has expired
+     */
+    public byte[] get(String encryptedData) {
+        ByteBuffer key = digest(encryptedData);
+        Segment segment = segmentFor(key);
+        long now = clock.getAsLong();
+        synchronized (segment) {
+            purgeExpired(segment, now);
+            Entry entry = segment.get(key);
+            if (entry == null) {
+                return null;
+            }
+            if (now - entry.expiresAt > 0) {
+                segment.remove(key).wipe();
+                return null;
+            }
+            return entry.plainText.clone();
+        }
+    }
+
+    /**
+     * @param encryptedData Encrypted value
+     * @param plainText     Decrypted value. A copy is stored, the caller remains the owner of the array.
+     */
+    public void put(String encryptedData, byte[] plainText) {
+        ByteBuffer key = digest(encryptedData);
+        long now = clock.getAsLong();
+        Entry entry = new Entry(plainText.clone(), now + ttlNanos);
+        Segment segment = segmentFor(key);
+        synchronized (segment) {
+            purgeExpired(segment, now);
+            Entry previous = segment.put(key, entry);
+            if (previous != null) {
+                previous.wipe();
+            }
+        }
+    }
+
+    /**
+     * Removes the expired values of all the segments
+     */
+    public void purgeExpired() {
+        long now = clock.getAsLong();
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                sweep(segment, now);
+            }
+        }
+    }
+
+    /**
+     * Sweeps a segment if its last sweep is older than a quarter of the time to live. Must hold the segment lock.
+     */
+    private void purgeExpired(Segment segment, long now) {
+        if (now - segment.nextSweep >= 0) {
+            sweep(segment, now);
+        }
+    }
+
+    private void sweep(Segment segment, long now) {
+        Iterator<Entry> it = segment.values().iterator();
+        while (it.hasNext()) {
+            Entry entry = it.next();
+            if (now - entry.expiresAt > 0) {
+                entry.wipe();
+                it.remove();
+            }
+        }
+        segment.nextSweep = now + ttlNanos / 4;
+    }
+
+    /**
+     * Removes all the values
+     */
+    public void clear() {
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                segment.values().forEach(Entry::wipe);
+                segment.clear();
+            }
+        }
+    }
+
+    /**
+     * @return the number of values currently in the cache, expired ones included
+     */
+    public int size() {
+        int res = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                res += segment.size();
+            }
+        }
+        return res;
+    }
+
+    int getSegmentCount() {
+        return segments.length;
+    }
+
+    private static ByteBuffer digest(String encryptedData) {
+        return ByteBuffer.wrap(DIGESTS.get().digest(encryptedData.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private Segment segmentFor(ByteBuffer key) {
+        // the digest bits are uniformly distributed
+        return segments[key.getInt(0) & (segments.length - 1)];
+    }
+
+    private static class Segment extends LinkedHashMap<ByteBuffer, Entry> {
+        private final int maxEntries;
+        private long nextSweep;
+
+        private Segment(int maxEntries, long nextSweep) {
+            super(16, 0.75f, true);
+            this.maxEntries = maxEntries;
+            this.nextSweep = nextSweep;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<ByteBuffer, Entry> eldest) {
+            if (size() > maxEntries) {
+                eldest.getValue().wipe();
+                return true;
+            }
+            return false;
+        }
+    }
+
+    private static class Entry {
+        private final byte[] plainText;
+        private final long expiresAt;
+
+        private Entry(byte[] plainText, long expiresAt) {
+            this.plainText = plainText;
+            this.expiresAt = expiresAt;
+        }
+
+        private void wipe() {
+            Arrays.fill(plainText, (byte) 0);
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package io.cloudtrust.crypto;
+
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Subkeys derived from master keys with HKDF-SHA256 (RFC 5869), one per (key id, purpose). A subkey is derived the
+ * first time it is needed and cached until its master key is replaced, e.g. by a key ring reload.
+ */
+final class DerivedKeyCache {
+    static final String HMAC_SHA256 = "HmacSHA256";
+
+    private static final String INFO_PREFIX = "cloudtrust:";
+    private static final int HASH_LENGTH = 32;
+
+    private final ConcurrentMap<DerivedKeyId, DerivedKey> keys = new ConcurrentHashMap<>();
+
+    /**
+     * @param kid       Identifier of the master key
+     * @param masterKey The master key
+     * @param purpose   Purpose of the subkey, e.g. email or phone
+     * @return a subkey of the same algorithm and length as the master key
+     */
+    SecretKey get(String kid, SecretKey masterKey, String purpose) {
+        DerivedKeyId id = new DerivedKeyId(kid, purpose);
+        DerivedKey derived = keys.get(id);
+        if (derived == null || derived.masterKey != masterKey) {
+            // first use of this (kid, purpose) or master key has been reloaded
+            derived = keys.compute(id, (k, v) -> v != null && v.masterKey == masterKey ? v
+                    : new DerivedKey(masterKey, derive(masterKey, purpose)));
+        }
+        return derived.key;
+    }
+
+    void clear() {
+        keys.clear();
+    }
+
+    private static SecretKey derive(SecretKey masterKey, String purpose) {
+        return derive(masterKey, new byte[0], purpose);
+    }
+
+    /**
+     * Derives a subkey without caching it
+     *
+     * @param masterKey The master key
+     * @param salt      The HKDF salt, may be empty
+     * @param purpose   Purpose of the subkey
+     * @return a subkey of the same algorithm and length as the master key
+     */
+    static SecretKey derive(SecretKey masterKey, byte[] salt, String purpose) {
+        byte[] ikm = masterKey.getEncoded();
+        byte[] okm = null;
+        try {
+            okm = hkdf(salt, ikm, (INFO_PREFIX + purpose).getBytes(StandardCharsets.UTF_8), ikm.length);
+            return new SecretKeySpec(okm, masterKey.getAlgorithm());
+        } catch (NoSuchAlgorithmException | InvalidKeyException e) {
+            throw new IllegalStateException("Cannot derive a key for purpose " + purpose, e);
+        } finally {
+            Arrays.fill(ikm, (byte) 0);
+            if (okm != null) {
+                Arrays.fill(okm, (byte) 0);
+            }
+        }
+    }
+
+    /**
+     * HKDF-SHA256 with an empty salt
+     *
+     * @param ikm    Input keying material
+     * @param info   Context of the derivation
+     * @param length Length of the output keying material
+     * @return the output keying material
+     */
+    static byte[] hkdf(byte[] ikm, byte[] info, int length) throws NoSuchAlgorithmException, InvalidKeyException {
+        return hkdf(new byte[0], ikm, info, length);
+    }
+
+    /**
+     * HKDF-SHA256
+     *
+     * @param salt   The salt, an empty salt is replaced by zeros as specified by RFC 5869
+     * @param ikm    Input keying material
+     * @param info   Context of the derivation
+     * @param length Length of the output keying material
+     * @return the output keying material
+     */
+    static byte[] hkdf(byte[] salt, byte[] ikm, byte[] info, int length) throws NoSuchAlgorithmException, InvalidKeyException {
+        if (length > 255 * HASH_LENGTH) {
+            throw new IllegalArgumentException("Cannot derive more than " + 255 * HASH_LENGTH + " bytes");
+        }
+        Mac mac = CryptoUtil.getCryptoProvider().createMac(HMAC_SHA256);
+        // extract
+        mac.init(new SecretKeySpec(salt.length == 0 ? new byte[HASH_LENGTH] : salt, HMAC_SHA256));
+        byte[] prk = mac.doFinal(ikm);
+        // expand
+        mac.init(new SecretKeySpec(prk, HMAC_SHA256));
+        Arrays.fill(prk, (byte) 0);
+        byte[] okm = new byte[length];
+        byte[] block = new byte[0];
+        for (int i = 1, offset = 0; offset < length; i++) {
+            mac.update(block);
+            mac.update(info);
+            mac.update((byte) i);
+            block = mac.doFinal();
+            System.arraycopy(block, 0, okm, offset, Math.min(block.length, length - offset));
+            offset += block.length;
+        }
+        Arrays.fill(block, (byte) 0);
+        return okm;
+    }
+
+    private static class DerivedKeyId {
+        private final String kid;
+        private final String purpose;
+
+        private DerivedKeyId(String kid, String purpose) {
+            this.kid = kid;
+            this.purpose = purpose;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof DerivedKeyId)) {
+                return false;
+            }
+            DerivedKeyId that = (DerivedKeyId) o;
+            return kid.equals(that.kid) && purpose.equals(that.purpose);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(kid, purpose);
+        }
+    }
+
+    private static class DerivedKey {
+        private final SecretKey masterKey;
+        private final SecretKey key;
+
+        private DerivedKey(SecretKey masterKey, SecretKey key) {
+            this.masterKey = masterKey;
+            this.key = key;
+        }
+    }
+}
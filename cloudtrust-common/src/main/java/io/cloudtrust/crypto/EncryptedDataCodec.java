@@ -0,0 +1,207 @@
+package io.cloudtrust.crypto;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+
+/**
+ * Encoder/decoder of the {"kid":"...","val":"..."} envelope used to store encrypted data in the database. Data
+ * encrypted with a subkey dedicated to a purpose carry it in a "p" field: {"kid":"...","p":"...","val":"..."}.
+ * Values produced by {@link #encode(String, String, String)} are decoded without any intermediate object; other JSON
+ * layouts are handled by a streaming parser. Non-envelope values (legacy ciphertext or cleartext) are detected
+ * by inspecting their first characters instead of relying on parsing exceptions.
+ */
+final class EncryptedDataCodec {
+    private static final String KID_PREFIX = "{\"kid\":\"";
+    private static final String PURPOSE_SEPARATOR = "\",\"p\":\"";
+    private static final String VAL_SEPARATOR = "\",\"val\":\"";
+    private static final String SUFFIX = "\"}";
+    private static final String KID_FIELD = "kid";
+    private static final String PURPOSE_FIELD = "p";
+    private static final String VAL_FIELD = "val";
+
+    // Base64 of the smallest GCM output: IV (12 bytes) and authentication tag (16 bytes)
+    private static final int MIN_BASE64_GCM_LENGTH = 40;
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    //Avoid class instantiation
+    private EncryptedDataCodec() {
+    }
+
+    /**
+     * Builds the JSON envelope
+     *
+     * @param kid Key identifier
+     * @param val Base64-encoded value
+     * @return The JSON envelope
+     */
+    static String encode(String kid, String val) {
+        return encode(kid, null, val);
+    }
+
+    /**
+     * Builds the JSON envelope of data encrypted with a subkey
+     *
+     * @param kid     Key identifier
+     * @param purpose Purpose of the subkey, null if the data is encrypted with the key itself
+     * @param val     Base64-encoded value
+     * @return The JSON envelope
+     */
+    static String encode(String kid, String purpose, String val) {
+        int length = KID_PREFIX.length() + VAL_SEPARATOR.length() + SUFFIX.length() + kid.length() + val.length();
+        if (purpose != null) {
+            length += PURPOSE_SEPARATOR.length() + purpose.length();
+        }
+        StringBuilder sb = new StringBuilder(length);
+        sb.append(KID_PREFIX);
+        appendEscaped(sb, kid);
+        if (purpose != null) {
+            sb.append(PURPOSE_SEPARATOR);
+            appendEscaped(sb, purpose);
+        }
+        sb.append(VAL_SEPARATOR);
+        appendEscaped(sb, val);
+        return sb.append(SUFFIX).toString();
+    }
+
+    /**
+     * Parses a JSON envelope
+     *
+     * @param data Value read from the database
+     * @return The envelope content or null if the value is not an envelope
+     */
+    static CryptoUtil.EncryptedData decode(String data) {
+        if (data == null || !startsLikeJsonObject(data)) {
+            return null;
+        }
+        CryptoUtil.EncryptedData res = decodeCanonical(data);
+        return res != null ? res : decodeStreaming(data);
+    }
+
+    /**
+     * Tells whether the given value could be a legacy ciphertext, i.e. the base64 representation of an IV
+     * followed by GCM encrypted data
+     *
+     * @param data Value read from the database
+     * @return false if the value cannot be a legacy ciphertext
+     */
+    static boolean isBase64GcmData(String data) {
+        int length = data.length();
+        if (length < MIN_BASE64_GCM_LENGTH || length % 4 != 0) {
+            return false;
+        }
+        int paddingStart = length;
+        while (paddingStart > length - 2 && data.charAt(paddingStart - 1) == '=') {
+            paddingStart--;
+        }
+        for (int i = 0; i < paddingStart; i++) {
+            char c = data.charAt(i);
+            if (!(c >= 'A' && c <= 'Z' || c >= 'a' && c <= 'z' || c >= '0' && c <= '9' || c == '+' || c == '/')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean startsLikeJsonObject(String data) {
+        for (int i = 0; i < data.length(); i++) {
+            char c = data.charAt(i);
+            if (!Character.isWhitespace(c)) {
+                return c == '{';
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Fast path: decodes values in the exact layout produced by {@link #encode(String, String, String)} when they do not
+     * contain any escaped character
+     */
+    private static CryptoUtil.EncryptedData decodeCanonical(String data) {
+        if (!data.startsWith(KID_PREFIX) || !data.endsWith(SUFFIX)) {
+            return null;
+        }
+        int separator = data.indexOf(VAL_SEPARATOR, KID_PREFIX.length());
+        int end = data.length() - SUFFIX.length();
+        if (separator < 0 || separator + VAL_SEPARATOR.length() > end) {
+            return null;
+        }
+        int valStart = separator + VAL_SEPARATOR.length();
+        int kidEnd = separator;
+        String purpose = null;
+        int purposeSeparator = data.indexOf(PURPOSE_SEPARATOR, KID_PREFIX.length());
+        if (purposeSeparator >= 0 && purposeSeparator < separator) {
+            int purposeStart = purposeSeparator + PURPOSE_SEPARATOR.length();
+            if (!isPlainContent(data, purposeStart, separator)) {
+                return null;
+            }
+            kidEnd = purposeSeparator;
+            purpose = data.substring(purposeStart, separator);
+        }
+        if (!isPlainContent(data, KID_PREFIX.length(), kidEnd) || !isPlainContent(data, valStart, end)) {
+            return null;
+        }
+        return new CryptoUtil.EncryptedData(data.substring(KID_PREFIX.length(), kidEnd), purpose, data.substring(valStart, end));
+    }
+
+    private static boolean isPlainContent(String data, int start, int end) {
+        for (int i = start; i < end; i++) {
+            char c = data.charAt(i);
+            if (c == '"' || c == '\\' || c < 0x20) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Slow path: any JSON object holding only kid/p/val string fields
+     */
+    private static CryptoUtil.EncryptedData decodeStreaming(String data) {
+        String kid = null;
+        String purpose = null;
+        String val = null;
+        try (JsonParser parser = JSON_FACTORY.createParser(data)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return null;
+            }
+            JsonToken token;
+            while ((token = parser.nextToken()) == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken valueToken = parser.nextToken();
+                if (valueToken != JsonToken.VALUE_STRING && valueToken != JsonToken.VALUE_NULL) {
+                    return null;
+                }
+                if (KID_FIELD.equals(field)) {
+                    kid = parser.getValueAsString();
+                } else if (PURPOSE_FIELD.equals(field)) {
+                    purpose = parser.getValueAsString();
+                } else if (VAL_FIELD.equals(field)) {
+                    val = parser.getValueAsString();
+                } else {
+                    return null;
+                }
+            }
+            return token == JsonToken.END_OBJECT ? new CryptoUtil.EncryptedData(kid, purpose, val) : null;
+        } catch (IOException e) {
+            // starts like a JSON object but is not valid JSON
+            return null;
+        }
+    }
+
+    private static void appendEscaped(StringBuilder sb, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+    }
+}
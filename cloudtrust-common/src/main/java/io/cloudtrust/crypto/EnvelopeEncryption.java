@@ -0,0 +1,203 @@
+package io.cloudtrust.crypto;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Envelope encryption: data of a realm is encrypted with a data key dedicated to this realm, and the data key is
+ * stored wrapped (encrypted) with the master key, by default the current key of {@link CryptoUtil#getDatabaseEncryptionKeys()}.
+ * Rotating the master key only requires to re-wrap the data keys (see {@link #rewrap(String)}) instead of
+ * re-encrypting all the stored values.
+ * <p>
+ * Unwrapped data keys are kept in a bounded cache. Lookups do not lock: each hit only records its access time, and
+ * the least recently used keys are evicted when a key is loaded into a full cache.
+ */
+public class EnvelopeEncryption {
+    private static final String AES_KEY_TYPE = "AES";
+    private static final int DATA_KEY_SIZE = 32;
+
+    private final DataKeyStore store;
+    private final ReloadableKeyRing masterKeys;
+    private final int maxCachedKeys;
+    private final ConcurrentMap<String, CachedKey> dataKeys = new ConcurrentHashMap<>();
+
+    /**
+     * Constructor, using the database encryption keys as master keys
+     *
+     * @param store         Store of the wrapped data keys
+     * @param maxCachedKeys Maximum number of unwrapped data keys kept in memory
+     */
+    public EnvelopeEncryption(DataKeyStore store, int maxCachedKeys) {
+        this(store, CryptoUtil.getDatabaseEncryptionKeys(), maxCachedKeys);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param store         Store of the wrapped data keys
+     * @param masterKeys    Keys used to wrap the data keys
+     * @param maxCachedKeys Maximum number of unwrapped data keys kept in memory
+     */
+    public EnvelopeEncryption(DataKeyStore store, ReloadableKeyRing masterKeys, int maxCachedKeys) {
+        if (maxCachedKeys < 1) {
+            throw new IllegalArgumentException("Cache must hold at least one data key");
+        }
+        this.store = store;
+        this.masterKeys = masterKeys;
+        this.maxCachedKeys = maxCachedKeys;
+    }
+
+    /**
+     * Encrypts data with the data key of a realm. The data key is created if the realm does not have one yet.
+     *
+     * @param realmId Realm identifier
+     * @param data    data to be encrypted
+     * @return base64 representation of the encrypted data
+     */
+    public String encrypt(String realmId, byte[] data) {
+        try {
+            return CryptoUtil.gcmEncryptData(getDataKey(realmId, true), data);
+        } catch (BadPaddingException | IllegalBlockSizeException ex) {
+            throw new IllegalArgumentException("Unexpected error while encrypting data of realm " + realmId, ex);
+        }
+    }
+
+    /**
+     * Decrypts data encrypted by {@link #encrypt(String, byte[])}
+     *
+     * @param realmId Realm identifier
+     * @param data    base64-encoded data to be decrypted
+     * @return decrypted data, or null if the provided data is null
+     * @throws IllegalStateException if the realm has no data key
+     */
+    public byte[] decrypt(String realmId, String data) {
+        if (data == null) {
+            return null;
+        }
+        try {
+            return CryptoUtil.gcmDecryptData(getDataKey(realmId, false), data);
+        } catch (BadPaddingException | IllegalBlockSizeException ex) {
+            throw new IllegalArgumentException("Unexpected error while decrypting data of realm " + realmId, ex);
+        }
+    }
+
+    /**
+     * Re-wraps the data key of a realm with the current master key
+     *
+     * @param realmId Realm identifier
+     * @return true if the data key has been re-wrapped, false if it was already wrapped with the current master key
+     * or if the realm has no data key
+     */
+    public boolean rewrap(String realmId) {
+        String wrappedKey = store.load(realmId);
+        if (wrappedKey == null) {
+            return false;
+        }
+        KeyRing keyRing = masterKeys.get();
+        CryptoUtil.EncryptedData wrapped = decodeWrappedKey(realmId, wrappedKey);
+        if (keyRing.getCurrentKid().equals(wrapped.kid)) {
+            return false;
+        }
+        byte[] rawKey = CryptoUtil.decryptEnvelope(keyRing, wrapped);
+        try {
+            store.replace(realmId, CryptoUtil.encryptForDatabaseStorage(keyRing.getCurrent(), rawKey));
+        } finally {
+            Arrays.fill(rawKey, (byte) 0);
+        }
+        return true;
+    }
+
+    /**
+     * Removes the unwrapped data key of a realm from the cache, e.g. when the realm is deleted
+     *
+     * @param realmId Realm identifier
+     */
+    public void invalidate(String realmId) {
+        dataKeys.remove(realmId);
+    }
+
+    /**
+     * Removes all the unwrapped data keys from the cache
+     */
+    public void clearCache() {
+        dataKeys.clear();
+    }
+
+    private SecretKey getDataKey(String realmId, boolean create) {
+        CachedKey cached = dataKeys.get(realmId);
+        if (cached != null) {
+            cached.lastAccess = System.nanoTime();
+            return cached.key;
+        }
+        String wrappedKey = store.load(realmId);
+        if (wrappedKey == null) {
+            if (!create) {
+                throw new IllegalStateException("No data key found for realm " + realmId);
+            }
+            wrappedKey = createDataKey(realmId);
+        }
+        SecretKey dataKey = unwrap(realmId, wrappedKey);
+        dataKeys.put(realmId, new CachedKey(dataKey));
+        evictLeastRecentlyUsed();
+        return dataKey;
+    }
+
+    private void evictLeastRecentlyUsed() {
+        while (dataKeys.size() > maxCachedKeys) {
+            Map.Entry<String, CachedKey> eldest = null;
+            for (Map.Entry<String, CachedKey> entry : dataKeys.entrySet()) {
+                if (eldest == null || entry.getValue().lastAccess - eldest.getValue().lastAccess < 0) {
+                    eldest = entry;
+                }
+            }
+            if (eldest == null) {
+                return;
+            }
+            // another thread may have evicted or reloaded it meanwhile
+            dataKeys.remove(eldest.getKey(), eldest.getValue());
+        }
+    }
+
+    private String createDataKey(String realmId) {
+        byte[] rawKey = new byte[DATA_KEY_SIZE];
+        GcmEngine.current().nextRandomBytes(rawKey);
+        try {
+            return store.storeIfAbsent(realmId, CryptoUtil.encryptForDatabaseStorage(masterKeys.get().getCurrent(), rawKey));
+        } finally {
+            Arrays.fill(rawKey, (byte) 0);
+        }
+    }
+
+    private SecretKey unwrap(String realmId, String wrappedKey) {
+        byte[] rawKey = CryptoUtil.decryptEnvelope(masterKeys.get(), decodeWrappedKey(realmId, wrappedKey));
+        try {
+            return new SecretKeySpec(rawKey, AES_KEY_TYPE);
+        } finally {
+            Arrays.fill(rawKey, (byte) 0);
+        }
+    }
+
+    private static CryptoUtil.EncryptedData decodeWrappedKey(String realmId, String wrappedKey) {
+        CryptoUtil.EncryptedData wrapped = EncryptedDataCodec.decode(wrappedKey);
+        if (wrapped == null) {
+            throw new IllegalStateException("Invalid data key for realm " + realmId);
+        }
+        return wrapped;
+    }
+
+    private static class CachedKey {
+        private final SecretKey key;
+        private volatile long lastAccess;
+
+        private CachedKey(SecretKey key) {
+            this.key = key;
+            this.lastAccess = System.nanoTime();
+        }
+    }
+}
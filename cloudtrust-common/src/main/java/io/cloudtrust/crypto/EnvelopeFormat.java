@@ -0,0 +1,27 @@
+package io.cloudtrust.crypto;
+
+/**
+ * Format of the data produced by {@link CryptoUtil#encryptForBinaryDatabaseStorage(byte[])}
+ */
+public enum EnvelopeFormat {
+    /**
+     * UTF-8 bytes of the JSON envelope {"kid":"...","val":"base64..."}
+     */
+    JSON,
+    /**
+     * Compact binary envelope: marker (0x00), version (0x01), kid length (1 byte), kid (UTF-8), IV and ciphertext
+     */
+    BINARY;
+
+    /**
+     * @param value Name of the format, case insensitive. Null or empty for the default format
+     * @return the format
+     * @throws IllegalArgumentException if the format is unknown
+     */
+    public static EnvelopeFormat fromString(String value) {
+        if (value == null || value.trim().isEmpty()) {
+            return JSON;
+        }
+        return EnvelopeFormat.valueOf(value.trim().toUpperCase());
+    }
+}
@@ -0,0 +1,165 @@
+package io.cloudtrust.crypto;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.Cipher;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.NoSuchPaddingException;
+import javax.crypto.SecretKey;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.GCMParameterSpec;
+import java.nio.ByteBuffer;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+
+/**
+ * AES/GCM engine confined to a thread: the Cipher and the SecureRandom are created once per thread and reused by
+ * every subsequent operation of this thread. IVs are drawn from the selected {@link NonceGenerator}.
+ * The engine is recreated when another {@link CryptoProvider} is selected.
+ */
+final class GcmEngine {
+    static final String AES_GCM_NOPADDING = "AES/GCM/NoPadding";
+    static final int IV_SIZE = 12; //size recommended by NIST
+    static final int TAG_LENGTH_BITS = 128;
+
+    private static final ThreadLocal<GcmEngine> ENGINES = new ThreadLocal<>();
+
+    private final CryptoProvider provider;
+    private final Cipher cipher;
+    private final SecureRandom secureRandom;
+
+    private GcmEngine(CryptoProvider provider) {
+        try {
+            this.cipher = provider.createCipher(AES_GCM_NOPADDING);
+        } catch (NoSuchAlgorithmException | NoSuchPaddingException e) {
+            throw new IllegalStateException("Cannot create a " + AES_GCM_NOPADDING + " cipher with provider " + provider.getName(), e);
+        }
+        this.provider = provider;
+        this.secureRandom = new SecureRandom();
+    }
+
+    /**
+     * @return the engine of the current thread
+     */
+    static GcmEngine current() {
+        GcmEngine engine = ENGINES.get();
+        CryptoProvider provider = CryptoUtil.getCryptoProvider();
+        if (engine == null || engine.provider != provider) {
+            engine = new GcmEngine(provider);
+            ENGINES.set(engine);
+        }
+        return engine;
+    }
+
+    /**
+     * Encrypts the given data with a new IV.
+     *
+     * @param aesKey The AES secret key
+     * @param data   The bytes to encrypt
+     * @return IV followed by the ciphered data and the authentication tag
+     */
+    byte[] encrypt(SecretKey aesKey, byte[] data) throws InvalidKeyException, InvalidAlgorithmParameterException,
+            BadPaddingException, IllegalBlockSizeException {
+        byte[] iv = new byte[IV_SIZE];
+        CryptoUtil.getNonceGenerator().nextNonce(iv);
+        cipher.init(Cipher.ENCRYPT_MODE, aesKey, new GCMParameterSpec(TAG_LENGTH_BITS, iv));
+        byte[] gcmData = new byte[IV_SIZE + cipher.getOutputSize(data.length)];
+        System.arraycopy(iv, 0, gcmData, 0, IV_SIZE);
+        try {
+            cipher.doFinal(data, 0, data.length, gcmData, IV_SIZE);
+        } catch (ShortBufferException e) {
+            // output buffer is sized by the cipher itself
+            throw new IllegalStateException("Unexpected output buffer size", e);
+        }
+        return gcmData;
+    }
+
+    /**
+     * Decrypts data produced by {@link #encrypt(SecretKey, byte[])}.
+     *
+     * @param aesKey  The AES secret key
+     * @param gcmData IV followed by the ciphered data and the authentication tag
+     * @return The decrypted bytes
+     */
+    byte[] decrypt(SecretKey aesKey, byte[] gcmData) throws InvalidKeyException, InvalidAlgorithmParameterException,
+            BadPaddingException, IllegalBlockSizeException {
+        if (gcmData.length < IV_SIZE) {
+            throw new IllegalArgumentException("Encrypted data is too short to contain an IV");
+        }
+        cipher.init(Cipher.DECRYPT_MODE, aesKey, new GCMParameterSpec(TAG_LENGTH_BITS, gcmData, 0, IV_SIZE));
+        return cipher.doFinal(gcmData, IV_SIZE, gcmData.length - IV_SIZE);
+    }
+
+    /**
+     * Encrypts the remaining bytes of the input buffer with a new IV.
+     *
+     * @param aesKey The AES secret key
+     * @param input  The bytes to encrypt, from its position to its limit
+     * @param output Receives the IV followed by the ciphered data and the authentication tag
+     * @return number of bytes written in the output buffer
+     */
+    int encrypt(SecretKey aesKey, ByteBuffer input, ByteBuffer output) throws InvalidKeyException, InvalidAlgorithmParameterException,
+            BadPaddingException, IllegalBlockSizeException, ShortBufferException {
+        byte[] iv = new byte[IV_SIZE];
+        CryptoUtil.getNonceGenerator().nextNonce(iv);
+        cipher.init(Cipher.ENCRYPT_MODE, aesKey, new GCMParameterSpec(TAG_LENGTH_BITS, iv));
+        int outputSize = IV_SIZE + cipher.getOutputSize(input.remaining());
+        if (output.remaining() < outputSize) {
+            throw new ShortBufferException("Output buffer needs " + outputSize + " bytes");
+        }
+        output.put(iv);
+        return IV_SIZE + cipher.doFinal(input, output);
+    }
+
+    /**
+     * Decrypts the remaining bytes of the input buffer, produced by {@link #encrypt(SecretKey, ByteBuffer, ByteBuffer)}.
+     *
+     * @param aesKey The AES secret key
+     * @param input  IV followed by the ciphered data and the authentication tag, from its position to its limit
+     * @param output Receives the decrypted bytes
+     * @return number of bytes written in the output buffer
+     */
+    int decrypt(SecretKey aesKey, ByteBuffer input, ByteBuffer output) throws InvalidKeyException, InvalidAlgorithmParameterException,
+            BadPaddingException, IllegalBlockSizeException, ShortBufferException {
+        if (input.remaining() < IV_SIZE) {
+            throw new IllegalArgumentException("Encrypted data is too short to contain an IV");
+        }
+        byte[] iv = new byte[IV_SIZE];
+        input.get(iv);
+        cipher.init(Cipher.DECRYPT_MODE, aesKey, new GCMParameterSpec(TAG_LENGTH_BITS, iv));
+        return cipher.doFinal(input, output);
+    }
+
+    /**
+     * Fills the given array with random bytes
+     *
+     * @param bytes The array to fill
+     */
+    void nextRandomBytes(byte[] bytes) {
+        secureRandom.nextBytes(bytes);
+    }
+
+    /**
+     * Encrypts or decrypts a buffer with a caller-provided IV and additional authenticated data
+     *
+     * @param mode        Cipher.ENCRYPT_MODE or Cipher.DECRYPT_MODE
+     * @param aesKey      The AES secret key
+     * @param iv          The IV, which must never be reused with the same key for encryption
+     * @param aad         Additional authenticated data
+     * @param input       The input buffer
+     * @param inputLength Number of bytes of the input buffer to process
+     * @param output      The output buffer, large enough to hold the result
+     * @return number of bytes written in the output buffer
+     */
+    int doFinal(int mode, SecretKey aesKey, byte[] iv, byte[] aad, byte[] input, int inputLength, byte[] output)
+            throws InvalidKeyException, InvalidAlgorithmParameterException, BadPaddingException, IllegalBlockSizeException {
+        cipher.init(mode, aesKey, new GCMParameterSpec(TAG_LENGTH_BITS, iv));
+        cipher.updateAAD(aad);
+        try {
+            return cipher.doFinal(input, 0, inputLength, output, 0);
+        } catch (ShortBufferException e) {
+            throw new IllegalStateException("Unexpected output buffer size", e);
+        }
+    }
+}
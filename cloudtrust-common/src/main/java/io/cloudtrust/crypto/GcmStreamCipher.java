@@ -0,0 +1,208 @@
+package io.cloudtrust.crypto;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.Cipher;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.SecretKey;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.InvalidKeyException;
+import java.util.Arrays;
+
+/**
+ * Streaming AES/GCM encryption of large payloads in constant memory.
+ * <p>
+ * The plaintext is split in segments of a fixed size (the last one can be shorter), each of them encrypted
+ * separately with AES/GCM. Format of the encrypted stream:
+ * <pre>
+ * header:  version (1 byte) | segment size (4 bytes) | salt (32 random bytes) | nonce prefix (7 random bytes)
+ * segment: ciphertext of the segment | authentication tag (16 bytes)
+ * </pre>
+ * Each stream is encrypted with its own key, derived from the given key and the salt with HKDF-SHA256 (as the
+ * AES-GCM-HKDF streaming AEAD of Tink), so that the short nonce prefix only has to be unique within a stream and not
+ * across all the streams encrypted with the same key.
+ * The IV of a segment is the nonce prefix followed by the segment number (4 bytes) and a flag telling whether the
+ * segment is the last one (1 byte), and the header is authenticated with each segment: segments cannot be reordered,
+ * truncated or moved to another stream without failing the decryption.
+ */
+public class GcmStreamCipher {
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024;
+    public static final int MIN_SEGMENT_SIZE = 16;
+    public static final int MAX_SEGMENT_SIZE = 16 * 1024 * 1024;
+
+    private static final byte VERSION = 2;
+    private static final String KEY_PURPOSE = "stream";
+    private static final int SALT_SIZE = 32;
+    private static final int NONCE_PREFIX_SIZE = 7;
+    private static final int HEADER_START_SIZE = 1 + 4;
+    private static final int HEADER_SIZE = HEADER_START_SIZE + SALT_SIZE + NONCE_PREFIX_SIZE;
+    private static final int TAG_SIZE = GcmEngine.TAG_LENGTH_BITS / 8;
+    private static final long MAX_SEGMENTS = 0xFFFFFFFFL;
+
+    //Avoid class instantiation
+    private GcmStreamCipher() {
+    }
+
+    /**
+     * Encrypts a stream with segments of {@link #DEFAULT_SEGMENT_SIZE} bytes
+     *
+     * @param aesKey The AES secret key
+     * @param in     The plaintext stream, read until its end
+     * @param out    The stream receiving the encrypted data
+     * @throws IOException               thrown if a stream cannot be read or written
+     * @throws BadPaddingException       thrown if there's a problem with the submitted data
+     * @throws IllegalBlockSizeException thrown if there's a problem with the submitted data
+     */
+    public static void encrypt(SecretKey aesKey, InputStream in, OutputStream out) throws IOException, BadPaddingException, IllegalBlockSizeException {
+        encrypt(aesKey, in, out, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Encrypts a stream
+     *
+     * @param aesKey      The AES secret key
+     * @param in          The plaintext stream, read until its end
+     * @param out         The stream receiving the encrypted data
+     * @param segmentSize Size of the plaintext segments
+     * @throws IOException               thrown if a stream cannot be read or written
+     * @throws BadPaddingException       thrown if there's a problem with the submitted data
+     * @throws IllegalBlockSizeException thrown if there's a problem with the submitted data
+     */
+    public static void encrypt(SecretKey aesKey, InputStream in, OutputStream out, int segmentSize) throws IOException, BadPaddingException, IllegalBlockSizeException {
+        checkSegmentSize(segmentSize);
+        GcmEngine engine = GcmEngine.current();
+        byte[] header = new byte[HEADER_SIZE];
+        ByteBuffer.wrap(header).put(VERSION).putInt(segmentSize);
+        byte[] saltAndNoncePrefix = new byte[SALT_SIZE + NONCE_PREFIX_SIZE];
+        engine.nextRandomBytes(saltAndNoncePrefix);
+        System.arraycopy(saltAndNoncePrefix, 0, header, HEADER_START_SIZE, saltAndNoncePrefix.length);
+        SecretKey streamKey = streamKey(aesKey, header);
+        out.write(header);
+
+        byte[] current = new byte[segmentSize];
+        byte[] next = new byte[segmentSize];
+        byte[] encrypted = new byte[segmentSize + TAG_SIZE];
+        int currentLength = readFully(in, current);
+        long segment = 0;
+        while (true) {
+            // read ahead to know whether the current segment is the last one
+            int nextLength = currentLength < segmentSize ? 0 : readFully(in, next);
+            boolean last = nextLength == 0;
+            int length = doFinal(engine, Cipher.ENCRYPT_MODE, streamKey, header, segment++, last, current, currentLength, encrypted);
+            out.write(encrypted, 0, length);
+            if (last) {
+                break;
+            }
+            byte[] swap = current;
+            current = next;
+            next = swap;
+            currentLength = nextLength;
+        }
+        out.flush();
+    }
+
+    /**
+     * Decrypts a stream produced by {@link #encrypt(SecretKey, InputStream, OutputStream, int)}
+     *
+     * @param aesKey The AES secret key
+     * @param in     The encrypted stream, read until its end
+     * @param out    The stream receiving the plaintext. If decryption fails, the segments already authenticated have
+     *               been written to this stream: the caller should discard them.
+     * @throws IOException               thrown if a stream cannot be read or written, or if the encrypted stream is malformed
+     * @throws BadPaddingException       thrown if the encrypted stream has been altered or truncated
+     * @throws IllegalBlockSizeException thrown if there's a problem with the submitted data
+     */
+    public static void decrypt(SecretKey aesKey, InputStream in, OutputStream out) throws IOException, BadPaddingException, IllegalBlockSizeException {
+        byte[] header = new byte[HEADER_SIZE];
+        if (readFully(in, header) != HEADER_SIZE) {
+            throw new EOFException("Encrypted stream is too short");
+        }
+        ByteBuffer headerBuffer = ByteBuffer.wrap(header);
+        if (headerBuffer.get() != VERSION) {
+            throw new IOException("Unsupported encrypted stream version");
+        }
+        int segmentSize = headerBuffer.getInt();
+        try {
+            checkSegmentSize(segmentSize);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Invalid encrypted stream header", e);
+        }
+
+        SecretKey streamKey = streamKey(aesKey, header);
+        GcmEngine engine = GcmEngine.current();
+        byte[] current = new byte[segmentSize + TAG_SIZE];
+        byte[] next = new byte[segmentSize + TAG_SIZE];
+        byte[] decrypted = new byte[segmentSize];
+        int currentLength = readFully(in, current);
+        long segment = 0;
+        while (true) {
+            int nextLength = currentLength < current.length ? 0 : readFully(in, next);
+            boolean last = nextLength == 0;
+            if (currentLength < TAG_SIZE) {
+                throw new EOFException("Encrypted stream is truncated");
+            }
+            int length = doFinal(engine, Cipher.DECRYPT_MODE, streamKey, header, segment++, last, current, currentLength, decrypted);
+            out.write(decrypted, 0, length);
+            if (last) {
+                break;
+            }
+            byte[] swap = current;
+            current = next;
+            next = swap;
+            currentLength = nextLength;
+        }
+        out.flush();
+    }
+
+    private static int doFinal(GcmEngine engine, int mode, SecretKey aesKey, byte[] header, long segment, boolean last,
+                               byte[] input, int inputLength, byte[] output) throws BadPaddingException, IllegalBlockSizeException {
+        if (segment > MAX_SEGMENTS) {
+            throw new IllegalBlockSizeException("Too many segments in the stream");
+        }
+        byte[] iv = new byte[GcmEngine.IV_SIZE];
+        ByteBuffer.wrap(iv)
+                .put(header, header.length - NONCE_PREFIX_SIZE, NONCE_PREFIX_SIZE)
+                .putInt((int) segment)
+                .put((byte) (last ? 1 : 0));
+        try {
+            return engine.doFinal(mode, aesKey, iv, header, input, inputLength, output);
+        } catch (InvalidKeyException | InvalidAlgorithmParameterException e) {
+            throw new IllegalStateException("Error in the gcm stream algorithm parameters", e);
+        }
+    }
+
+    /**
+     * Derives the key of a stream from the salt of its header
+     */
+    private static SecretKey streamKey(SecretKey aesKey, byte[] header) {
+        byte[] salt = Arrays.copyOfRange(header, HEADER_START_SIZE, HEADER_START_SIZE + SALT_SIZE);
+        return DerivedKeyCache.derive(aesKey, salt, KEY_PURPOSE);
+    }
+
+    private static void checkSegmentSize(int segmentSize) {
+        if (segmentSize < MIN_SEGMENT_SIZE || segmentSize > MAX_SEGMENT_SIZE) {
+            throw new IllegalArgumentException("Segment size must be between " + MIN_SEGMENT_SIZE + " and " + MAX_SEGMENT_SIZE);
+        }
+    }
+
+    /**
+     * Reads until the buffer is full or the end of the stream is reached
+     *
+     * @return number of bytes read
+     */
+    private static int readFully(InputStream in, byte[] buffer) throws IOException {
+        int total = 0;
+        while (total < buffer.length) {
+            int read = in.read(buffer, total, buffer.length - total);
+            if (read < 0) {
+                break;
+            }
+            total += read;
+        }
+        return total;
+    }
+}
@@ -0,0 +1,70 @@
+package io.cloudtrust.crypto;
+
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * HMAC engine confined to a thread: each thread keeps one initialized Mac per key id, so that a Mac
+ * is only created and initialized the first time a thread uses a given key.
+ * The engine is recreated when another {@link CryptoProvider} is selected.
+ */
+final class HmacEngine {
+    static final String HMAC_SHA512 = "HmacSHA512";
+
+    private static final ThreadLocal<HmacEngine> ENGINES = new ThreadLocal<>();
+
+    private final CryptoProvider provider;
+    private final Map<String, InitializedMac> macs = new HashMap<>();
+
+    private HmacEngine(CryptoProvider provider) {
+        this.provider = provider;
+    }
+
+    /**
+     * @return the engine of the current thread
+     */
+    static HmacEngine current() {
+        HmacEngine engine = ENGINES.get();
+        CryptoProvider provider = CryptoUtil.getCryptoProvider();
+        if (engine == null || engine.provider != provider) {
+            engine = new HmacEngine(provider);
+            ENGINES.set(engine);
+        }
+        return engine;
+    }
+
+    /**
+     * Computes the HMAC-SHA512 of the given data
+     *
+     * @param kid  The identifier of the key
+     * @param key  The HMAC key
+     * @param data The data to authenticate
+     * @return The HMAC value
+     */
+    byte[] compute(String kid, SecretKey key, byte[] data) throws NoSuchAlgorithmException, InvalidKeyException {
+        InitializedMac initializedMac = macs.get(kid);
+        if (initializedMac == null || initializedMac.key != key) {
+            // first use of this key id or key has been reloaded
+            Mac mac = provider.createMac(HMAC_SHA512);
+            mac.init(key);
+            initializedMac = new InitializedMac(key, mac);
+            macs.put(kid, initializedMac);
+        }
+        // doFinal resets the Mac, which is then ready for the next computation
+        return initializedMac.mac.doFinal(data);
+    }
+
+    private static class InitializedMac {
+        private final SecretKey key;
+        private final Mac mac;
+
+        private InitializedMac(SecretKey key, Mac mac) {
+            this.key = key;
+            this.mac = mac;
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package io.cloudtrust.crypto;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Recomputes, in the background, the HMAC of stored values with the current DB_HMAC_KEY.
+ * The source values are either cleartext or stored encrypted into the database; the migrated values are the new
+ * HMAC to store. Until the migration is over, lookups can use {@link CryptoUtil#computeHmacsForDatabaseStorage(String)}
+ * to find the values hashed with the previous keys.
+ */
+public class HmacRehashPipeline extends MigrationPipeline {
+    private final boolean encryptedSource;
+
+    /**
+     * Constructor
+     *
+     * @param batchSize         Number of values per batch
+     * @param parallelism       Number of worker threads
+     * @param maxPendingBatches Maximum number of batches read from the source but not yet written to the sink
+     * @param encryptedSource   true if the source values are stored encrypted into the database
+     */
+    public HmacRehashPipeline(int batchSize, int parallelism, int maxPendingBatches, boolean encryptedSource) {
+        super(batchSize, parallelism, maxPendingBatches);
+        this.encryptedSource = encryptedSource;
+    }
+
+    @Override
+    protected String migrate(StoredValue value) {
+        String source = value.getValue();
+        if (source == null) {
+            return null;
+        }
+        if (encryptedSource) {
+            // bulk decryption must not evict the working set of the decryption cache
+            source = new String(CryptoUtil.decryptWithoutCache(source), StandardCharsets.UTF_8);
+        }
+        return CryptoUtil.computeHmacForDatabaseStorage(source);
+    }
+}
@@ -0,0 +1,35 @@
+package io.cloudtrust.crypto;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.NoSuchPaddingException;
+import java.security.NoSuchAlgorithmException;
+import java.security.Provider;
+
+/**
+ * {@link CryptoProvider} backed by a JCA provider, or by the JCE defaults
+ */
+final class JceCryptoProvider implements CryptoProvider {
+    static final JceCryptoProvider DEFAULT = new JceCryptoProvider(null);
+
+    private final Provider provider;
+
+    JceCryptoProvider(Provider provider) {
+        this.provider = provider;
+    }
+
+    @Override
+    public String getName() {
+        return provider == null ? "default" : provider.getName();
+    }
+
+    @Override
+    public Cipher createCipher(String transformation) throws NoSuchAlgorithmException, NoSuchPaddingException {
+        return provider == null ? Cipher.getInstance(transformation) : Cipher.getInstance(transformation, provider);
+    }
+
+    @Override
+    public Mac createMac(String algorithm) throws NoSuchAlgorithmException {
+        return provider == null ? Mac.getInstance(algorithm) : Mac.getInstance(algorithm, provider);
+    }
+}
@@ -0,0 +1,68 @@
+package io.cloudtrust.crypto;
+
+import javax.crypto.SecretKey;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable snapshot of a set of keys: the current key, used to encrypt/hash new values, and all the keys
+ * (current one included) which can still be used to decrypt/verify stored values.
+ */
+public final class KeyRing {
+    private final KeyEntry current;
+    private final Map<String, SecretKey> keys;
+
+    KeyRing(List<? extends KeyEntry> entries) {
+        if (entries.isEmpty()) {
+            throw new IllegalArgumentException("A key ring needs at least one key");
+        }
+        // sort list of keys according to indices (bigger to smaller, to have the latest first)
+        List<KeyEntry> sorted = new ArrayList<>(entries);
+        Collections.sort(sorted);
+        Map<String, SecretKey> keysByKid = new LinkedHashMap<>();
+        for (KeyEntry entry : sorted) {
+            if (keysByKid.put(entry.getKid(), entry.getKey()) != null) {
+                throw new IllegalArgumentException("Duplicate key " + entry.getKid());
+            }
+        }
+        this.current = sorted.get(0);
+        this.keys = Collections.unmodifiableMap(keysByKid);
+    }
+
+    KeyEntry getCurrent() {
+        return current;
+    }
+
+    /**
+     * @return the identifier of the most recent key
+     */
+    public String getCurrentKid() {
+        return current.getKid();
+    }
+
+    /**
+     * @return the most recent key
+     */
+    public SecretKey getCurrentKey() {
+        return current.getKey();
+    }
+
+    /**
+     * @param kid Key identifier
+     * @return the key with the given identifier, or null if it is unknown
+     */
+    public SecretKey getKey(String kid) {
+        return kid == null ? null : keys.get(kid);
+    }
+
+    /**
+     * @return identifiers of all the keys, the most recent first
+     */
+    public Set<String> getKids() {
+        return keys.keySet();
+    }
+}
@@ -0,0 +1,40 @@
+package io.cloudtrust.crypto;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Source of key material. Keys are provided as a JSON list: [{"kid": "KEY_2", "value": "base64..."}, ...]
+ */
+@FunctionalInterface
+public interface KeySource {
+    /**
+     * @return the JSON list of keys
+     * @throws IOException if the keys cannot be read
+     */
+    String load() throws IOException;
+
+    /**
+     * @param variableName Name of the environment variable
+     * @return A source reading the keys from an environment variable
+     */
+    static KeySource fromEnvironment(String variableName) {
+        return () -> {
+            String keys = System.getenv(variableName); // each key is encoded in Base64
+            if (keys == null) {
+                throw new IllegalStateException("Cannot load the environment variable " + variableName);
+            }
+            return keys;
+        };
+    }
+
+    /**
+     * @param path Path of the file
+     * @return A source reading the keys from a file each time keys are (re)loaded
+     */
+    static KeySource fromFile(Path path) {
+        return () -> new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,106 @@
+package io.cloudtrust.crypto;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Classifies, in parallel, the values stored encrypted into the database, to measure how much data is still stored
+ * in a legacy format, and optionally upgrades the legacy values to the current envelope format.
+ * <p>
+ * A value is classified as:
+ * <ul>
+ * <li>{@link Kind#ENVELOPE}: an encrypted structure which can be decrypted</li>
+ * <li>{@link Kind#LEGACY_GCM}: base64 GCM data without structure, which can be decrypted by one of the keys</li>
+ * <li>{@link Kind#PLAINTEXT}: any other value, read as clear text by {@link CryptoUtil#decryptFromDatabaseStorage(String)}</li>
+ * <li>{@link Kind#CORRUPTED}: an encrypted structure which cannot be decrypted, or base64 GCM data which cannot
+ * be decrypted by any key (read as clear text by {@link CryptoUtil#decryptFromDatabaseStorage(String)})</li>
+ * </ul>
+ * Null values are ignored.
+ */
+public class LegacyDataScanner extends MigrationPipeline {
+    public enum Kind {
+        ENVELOPE, LEGACY_GCM, PLAINTEXT, CORRUPTED
+    }
+
+    private final boolean upgrade;
+    private final Map<Kind, LongAdder> counts = new EnumMap<>(Kind.class);
+
+    /**
+     * Constructor
+     *
+     * @param batchSize         Number of values per batch
+     * @param parallelism       Number of worker threads
+     * @param maxPendingBatches Maximum number of batches read from the source but not yet written to the sink
+     * @param upgrade           true to encrypt the legacy and plaintext values in the current envelope format,
+     *                          false to only classify the values
+     */
+    public LegacyDataScanner(int batchSize, int parallelism, int maxPendingBatches, boolean upgrade) {
+        super(batchSize, parallelism, maxPendingBatches);
+        this.upgrade = upgrade;
+        for (Kind kind : Kind.values()) {
+            counts.put(kind, new LongAdder());
+        }
+    }
+
+    @Override
+    public MigrationProgress run(Iterator<StoredValue> source, Consumer<List<StoredValue>> sink, Consumer<String> checkpointListener,
+                                 BiConsumer<String, RuntimeException> failureListener) {
+        counts.values().forEach(LongAdder::reset);
+        return super.run(source, sink, checkpointListener, failureListener);
+    }
+
+    @Override
+    protected String migrate(StoredValue value) {
+        String data = value.getValue();
+        if (data == null) {
+            return null;
+        }
+        KeyRing keyRing = CryptoUtil.getDatabaseEncryptionKeys().get();
+        CryptoUtil.EncryptedData encData = EncryptedDataCodec.decode(data);
+        if (encData != null) {
+            try {
+                CryptoUtil.decryptEnvelope(keyRing, encData);
+                counts.get(Kind.ENVELOPE).increment();
+            } catch (RuntimeException e) {
+                counts.get(Kind.CORRUPTED).increment();
+            }
+            return null;
+        }
+        byte[] plainText;
+        if (EncryptedDataCodec.isBase64GcmData(data)) {
+            plainText = CryptoUtil.decryptLegacyGcm(keyRing, data);
+            if (plainText == null) {
+                counts.get(Kind.CORRUPTED).increment();
+                return null;
+            }
+            counts.get(Kind.LEGACY_GCM).increment();
+        } else {
+            plainText = data.getBytes(StandardCharsets.UTF_8);
+            counts.get(Kind.PLAINTEXT).increment();
+        }
+        return upgrade ? CryptoUtil.encryptForDatabaseStorage(keyRing.getCurrent(), plainText) : null;
+    }
+
+    /**
+     * @return number of values of each kind found by the current (or last) run
+     */
+    public Map<Kind, Long> getCounts() {
+        Map<Kind, Long> res = new EnumMap<>(Kind.class);
+        counts.forEach((kind, count) -> res.put(kind, count.sum()));
+        return Collections.unmodifiableMap(res);
+    }
+
+    /**
+     * @return a summary of the current (or last) run: number of values of each kind, progress and throughput
+     */
+    public String getReport() {
+        return getCounts() + " " + getProgress();
+    }
+}
@@ -0,0 +1,219 @@
+package io.cloudtrust.crypto;
+
+import io.cloudtrust.exception.CloudtrustRuntimeException;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Streams stored values through a migration function in parallel batches.
+ * <ul>
+ * <li>values are read from the source by the calling thread and grouped in batches</li>
+ * <li>batches are migrated by a pool of worker threads; the number of batches read but not yet written is bounded,
+ * so that a slow sink slows down the reading of the source (back-pressure)</li>
+ * <li>migrated values of a batch are handed over to the sink, which can be called concurrently by several workers</li>
+ * <li>once a batch and all the batches read before it are written, the identifier of its last value is sent to the
+ * checkpoint listener: a stopped migration can be resumed by restarting the source after the last checkpoint</li>
+ * <li>values which cannot be migrated are left as is and reported to the failure listener; checkpoints never move
+ * past the first failed value, so that a resumed migration retries it</li>
+ * </ul>
+ */
+public abstract class MigrationPipeline {
+    private final int batchSize;
+    private final int parallelism;
+    private final int maxPendingBatches;
+    private volatile MigrationProgress progress;
+
+    /**
+     * Constructor
+     *
+     * @param batchSize         Number of values per batch
+     * @param parallelism       Number of worker threads
+     * @param maxPendingBatches Maximum number of batches read from the source but not yet written to the sink
+     */
+    protected MigrationPipeline(int batchSize, int parallelism, int maxPendingBatches) {
+        if (batchSize <= 0 || parallelism <= 0 || maxPendingBatches <= 0) {
+            throw new IllegalArgumentException("Batch size, parallelism and maximum pending batches must be positive");
+        }
+        this.batchSize = batchSize;
+        this.parallelism = parallelism;
+        this.maxPendingBatches = maxPendingBatches;
+    }
+
+    /**
+     * Migrates a single value. Called concurrently by the worker threads.
+     *
+     * @param value The stored value
+     * @return The new value to store, or null if the value does not need to be migrated
+     */
+    protected abstract String migrate(StoredValue value);
+
+    /**
+     * @return progress of the current (or last) run, null if the pipeline has never been run
+     */
+    public MigrationProgress getProgress() {
+        return progress;
+    }
+
+    /**
+     * Runs the migration
+     *
+     * @param source             Stored values to migrate
+     * @param sink               Receives the migrated values of each batch. Must be thread-safe.
+     * @param checkpointListener Receives the identifier of the last value up to which everything has been written
+     * @return The progress of the migration
+     * @throws CloudtrustRuntimeException if the sink fails or if the migration is interrupted
+     */
+    public MigrationProgress run(Iterator<StoredValue> source, Consumer<List<StoredValue>> sink, Consumer<String> checkpointListener) {
+        return run(source, sink, checkpointListener, null);
+    }
+
+    /**
+     * Runs the migration
+     *
+     * @param source             Stored values to migrate
+     * @param sink               Receives the migrated values of each batch. Must be thread-safe.
+     * @param checkpointListener Receives the identifier of the last value up to which everything has been written
+     * @param failureListener    Receives the identifier of each value which cannot be migrated, with the cause of
+     *                           the failure. Must be thread-safe.
+     * @return The progress of the migration
+     * @throws CloudtrustRuntimeException if the sink fails or if the migration is interrupted
+     */
+    public MigrationProgress run(Iterator<StoredValue> source, Consumer<List<StoredValue>> sink, Consumer<String> checkpointListener,
+                                 BiConsumer<String, RuntimeException> failureListener) {
+        MigrationProgress runProgress = new MigrationProgress();
+        this.progress = runProgress;
+        Semaphore pendingBatches = new Semaphore(maxPendingBatches);
+        CheckpointTracker checkpoints = new CheckpointTracker(checkpointListener);
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+        try {
+            long batchNumber = 0;
+            while (failure.get() == null && source.hasNext()) {
+                List<StoredValue> batch = nextBatch(source);
+                runProgress.incrementRead(batch.size());
+                pendingBatches.acquire();
+                long number = batchNumber++;
+                executor.execute(() -> {
+                    try {
+                        List<StoredValue> migrated = new ArrayList<>(batch.size());
+                        int firstFailure = migrateBatch(batch, migrated, runProgress, failureListener);
+                        if (!migrated.isEmpty()) {
+                            sink.accept(migrated);
+                        }
+                        checkpoints.completed(number, batch, firstFailure);
+                    } catch (RuntimeException e) {
+                        failure.compareAndSet(null, e);
+                    } finally {
+                        pendingBatches.release();
+                    }
+                });
+            }
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failure.compareAndSet(null, e);
+        } finally {
+            executor.shutdownNow();
+            runProgress.finish();
+        }
+        if (failure.get() != null) {
+            throw new CloudtrustRuntimeException("Migration aborted (" + runProgress + ")", failure.get());
+        }
+        return runProgress;
+    }
+
+    private List<StoredValue> nextBatch(Iterator<StoredValue> source) {
+        List<StoredValue> batch = new ArrayList<>(batchSize);
+        while (batch.size() < batchSize && source.hasNext()) {
+            batch.add(source.next());
+        }
+        return batch;
+    }
+
+    /**
+     * @return index of the first value of the batch which cannot be migrated, -1 if all of them have been processed
+     */
+    private int migrateBatch(List<StoredValue> batch, List<StoredValue> migrated, MigrationProgress runProgress,
+                             BiConsumer<String, RuntimeException> failureListener) {
+        int firstFailure = -1;
+        for (int i = 0; i < batch.size(); i++) {
+            StoredValue value = batch.get(i);
+            try {
+                String newValue = migrate(value);
+                if (newValue == null) {
+                    runProgress.incrementUnchanged();
+                } else {
+                    migrated.add(new StoredValue(value.getId(), newValue));
+                    runProgress.incrementMigrated();
+                }
+            } catch (RuntimeException e) {
+                // the value is left as is
+                runProgress.incrementFailed();
+                if (firstFailure < 0) {
+                    firstFailure = i;
+                }
+                if (failureListener != null) {
+                    failureListener.accept(value.getId(), e);
+                }
+            }
+        }
+        return firstFailure;
+    }
+
+    /**
+     * Publishes checkpoints in reading order, whatever the order in which batches complete. Once a value has failed,
+     * checkpoints stop at the value read just before it.
+     */
+    private static class CheckpointTracker {
+        private final Consumer<String> listener;
+        private final Map<Long, Checkpoint> completed = new TreeMap<>();
+        private long nextBatch = 0;
+        private boolean stopped = false;
+
+        private CheckpointTracker(Consumer<String> listener) {
+            this.listener = listener;
+        }
+
+        private synchronized void completed(long batchNumber, List<StoredValue> batch, int firstFailure) {
+            if (stopped) {
+                return;
+            }
+            String lastId = firstFailure < 0 ? batch.get(batch.size() - 1).getId()
+                    : firstFailure == 0 ? null : batch.get(firstFailure - 1).getId();
+            completed.put(batchNumber, new Checkpoint(lastId, firstFailure >= 0));
+            String checkpoint = null;
+            while (!stopped && completed.containsKey(nextBatch)) {
+                Checkpoint batchCheckpoint = completed.remove(nextBatch++);
+                if (batchCheckpoint.lastId != null) {
+                    checkpoint = batchCheckpoint.lastId;
+                }
+                stopped = batchCheckpoint.failed;
+            }
+            if (checkpoint != null && listener != null) {
+                listener.accept(checkpoint);
+            }
+        }
+    }
+
+    private static class Checkpoint {
+        private final String lastId;
+        private final boolean failed;
+
+        private Checkpoint(String lastId, boolean failed) {
+            this.lastId = lastId;
+            this.failed = failed;
+        }
+    }
+}
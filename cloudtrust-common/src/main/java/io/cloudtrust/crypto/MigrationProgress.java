@@ -0,0 +1,101 @@
+package io.cloudtrust.crypto;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Progress counters of a {@link MigrationPipeline} run. Counters can be read from any thread while the
+ * migration is running.
+ */
+public class MigrationProgress {
+    private final AtomicLong read = new AtomicLong();
+    private final AtomicLong migrated = new AtomicLong();
+    private final AtomicLong unchanged = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final long startNanos = System.nanoTime();
+    private volatile long endNanos = -1;
+
+    void incrementRead(long count) {
+        read.addAndGet(count);
+    }
+
+    void incrementMigrated() {
+        migrated.incrementAndGet();
+    }
+
+    void incrementUnchanged() {
+        unchanged.incrementAndGet();
+    }
+
+    void incrementFailed() {
+        failed.incrementAndGet();
+    }
+
+    void finish() {
+        endNanos = System.nanoTime();
+    }
+
+    /**
+     * @return number of values read from the source
+     */
+    public long getRead() {
+        return read.get();
+    }
+
+    /**
+     * @return number of values which have been migrated and sent to the sink
+     */
+    public long getMigrated() {
+        return migrated.get();
+    }
+
+    /**
+     * @return number of values which did not need to be migrated
+     */
+    public long getUnchanged() {
+        return unchanged.get();
+    }
+
+    /**
+     * @return number of values which could not be migrated
+     */
+    public long getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * @return number of values which have been processed (migrated, unchanged or failed)
+     */
+    public long getProcessed() {
+        return getMigrated() + getUnchanged() + getFailed();
+    }
+
+    /**
+     * @return true if the migration is over
+     */
+    public boolean isFinished() {
+        return endNanos >= 0;
+    }
+
+    /**
+     * @return elapsed time in milliseconds since the start of the migration, until its end if it is finished
+     */
+    public long getElapsedMillis() {
+        long end = isFinished() ? endNanos : System.nanoTime();
+        return TimeUnit.NANOSECONDS.toMillis(end - startNanos);
+    }
+
+    /**
+     * @return number of processed values per second
+     */
+    public double getThroughput() {
+        long elapsed = getElapsedMillis();
+        return elapsed == 0 ? 0 : getProcessed() * 1000.0 / elapsed;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("read=%d migrated=%d unchanged=%d failed=%d elapsed=%dms throughput=%.1f/s",
+                getRead(), getMigrated(), getUnchanged(), getFailed(), getElapsedMillis(), getThroughput());
+    }
+}
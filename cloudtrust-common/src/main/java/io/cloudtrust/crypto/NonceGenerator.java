@@ -0,0 +1,43 @@
+package io.cloudtrust.crypto;
+
+/**
+ * Generates the IVs of the AES/GCM encryptions performed by {@link CryptoUtil}. Implementations must be thread safe
+ * and must never return the same nonce twice.
+ */
+public interface NonceGenerator {
+    /**
+     * Fills the given array with a new nonce
+     *
+     * @param nonce The array to fill
+     */
+    void nextNonce(byte[] nonce);
+
+    /**
+     * @return a generator drawing random nonces from a SecureRandom kept per thread
+     */
+    static NonceGenerator random() {
+        return RandomNonceGenerator.INSTANCE;
+    }
+
+    /**
+     * @return a generator of nonces made of a random prefix followed by a counter starting at a random value
+     */
+    static NonceGenerator counter() {
+        return new CounterNonceGenerator(CounterNonceGenerator.MAX_NONCES_PER_PREFIX);
+    }
+
+    /**
+     * @param name random or counter, case insensitive. Null or empty for random
+     * @return the generator
+     * @throws IllegalArgumentException if the name is unknown
+     */
+    static NonceGenerator fromName(String name) {
+        if (name == null || name.trim().isEmpty() || "random".equalsIgnoreCase(name.trim())) {
+            return random();
+        }
+        if ("counter".equalsIgnoreCase(name.trim())) {
+            return counter();
+        }
+        throw new IllegalArgumentException("Unknown nonce generator " + name);
+    }
+}
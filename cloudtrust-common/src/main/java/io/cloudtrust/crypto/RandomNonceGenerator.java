@@ -0,0 +1,21 @@
+package io.cloudtrust.crypto;
+
+import java.security.SecureRandom;
+
+/**
+ * Draws nonces from a SecureRandom created once per thread, so that threads never contend on a shared generator
+ * nor seed a new one for each nonce.
+ */
+final class RandomNonceGenerator implements NonceGenerator {
+    static final RandomNonceGenerator INSTANCE = new RandomNonceGenerator();
+
+    private static final ThreadLocal<SecureRandom> RANDOMS = ThreadLocal.withInitial(SecureRandom::new);
+
+    private RandomNonceGenerator() {
+    }
+
+    @Override
+    public void nextNonce(byte[] nonce) {
+        RANDOMS.get().nextBytes(nonce);
+    }
+}
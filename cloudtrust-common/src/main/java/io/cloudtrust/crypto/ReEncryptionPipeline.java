@@ -0,0 +1,24 @@
+package io.cloudtrust.crypto;
+
+/**
+ * Migrates values stored encrypted into the database to the current DB_ENCRYPTION_KEY.
+ * Legacy ciphertext (without kid) is re-encrypted into an encrypted structure with the current key. Values already
+ * encrypted with the current key and legacy clear text are left unchanged.
+ */
+public class ReEncryptionPipeline extends MigrationPipeline {
+    /**
+     * Constructor
+     *
+     * @param batchSize         Number of values per batch
+     * @param parallelism       Number of worker threads
+     * @param maxPendingBatches Maximum number of batches read from the source but not yet written to the sink
+     */
+    public ReEncryptionPipeline(int batchSize, int parallelism, int maxPendingBatches) {
+        super(batchSize, parallelism, maxPendingBatches);
+    }
+
+    @Override
+    protected String migrate(StoredValue value) {
+        return CryptoUtil.reencryptForDatabaseStorage(value.getValue());
+    }
+}
@@ -0,0 +1,108 @@
+package io.cloudtrust.crypto;
+
+import com.fasterxml.jackson.databind.ObjectReader;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Publishes the {@link KeyRing} loaded from a {@link KeySource}. Readers only perform a volatile read of the
+ * current snapshot; a reload builds a new snapshot and swaps it atomically, so that keys can be rotated at runtime.
+ */
+public class ReloadableKeyRing {
+    private final String name;
+    private final ObjectReader keysReader;
+    private final KeySource defaultSource;
+    private final AtomicReference<KeyRing> keyRing = new AtomicReference<>();
+    private volatile KeySource source;
+
+    /**
+     * Constructor
+     *
+     * @param name          Name of the keys, used in error messages
+     * @param defaultSource Source of the keys
+     * @param keysReader    Reader of a list of {@link KeyEntry}
+     */
+    ReloadableKeyRing(String name, KeySource defaultSource, ObjectReader keysReader) {
+        this.name = name;
+        this.keysReader = keysReader;
+        this.defaultSource = defaultSource;
+        this.source = defaultSource;
+    }
+
+    /**
+     * Gets the current snapshot. Keys are loaded the first time this method is called.
+     *
+     * @return the current key ring
+     * @throws IllegalStateException if the keys cannot be loaded
+     */
+    public KeyRing get() {
+        KeyRing res = keyRing.get();
+        if (res == null) {
+            synchronized (this) {
+                res = keyRing.get();
+                if (res == null) {
+                    res = load();
+                    keyRing.set(res);
+                }
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Loads the keys from the source and publishes them. If the keys cannot be loaded, the current snapshot is kept.
+     *
+     * @return the new key ring
+     * @throws IllegalStateException if the keys cannot be loaded
+     */
+    public KeyRing reload() {
+        synchronized (this) {
+            KeyRing res = load();
+            keyRing.set(res);
+            return res;
+        }
+    }
+
+    /**
+     * Changes the source of the keys and loads them
+     *
+     * @param source New source of the keys
+     * @return the new key ring
+     * @throws IllegalStateException if the keys cannot be loaded
+     */
+    public KeyRing setSource(KeySource source) {
+        synchronized (this) {
+            KeyRing res = load(source);
+            this.source = source;
+            keyRing.set(res);
+            return res;
+        }
+    }
+
+    /**
+     * Goes back to the default source and forgets the loaded keys
+     */
+    void clear() {
+        synchronized (this) {
+            this.source = defaultSource;
+            keyRing.set(null);
+        }
+    }
+
+    private KeyRing load() {
+        return load(source);
+    }
+
+    private KeyRing load(KeySource keySource) {
+        try {
+            List<? extends KeyEntry> keys = keysReader.readValue(keySource.load());
+            if (keys == null || keys.isEmpty()) {
+                throw new IllegalStateException("Cannot find any appropriate key for " + name);
+            }
+            return new KeyRing(keys);
+        } catch (Exception ex) {
+            throw new IllegalStateException("Cannot load the " + name, ex);
+        }
+    }
+}
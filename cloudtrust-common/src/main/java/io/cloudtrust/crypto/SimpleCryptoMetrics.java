@@ -0,0 +1,129 @@
+package io.cloudtrust.crypto;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * In-memory {@link CryptoMetrics}: counters, failures and a latency histogram per operation and key, plus the legacy
+ * fallback counters. The histogram has power-of-two buckets: bucket i counts the operations which took less than
+ * 2^i microseconds, the last bucket counts the slower ones.
+ */
+public class SimpleCryptoMetrics implements CryptoMetrics {
+    public static final int HISTOGRAM_BUCKETS = 21;
+
+    private final Map<Operation, Map<String, Stats>> stats = new EnumMap<>(Operation.class);
+    private final LongAdder legacyDecrypted = new LongAdder();
+    private final LongAdder legacyClearText = new LongAdder();
+
+    public SimpleCryptoMetrics() {
+        for (Operation operation : Operation.values()) {
+            stats.put(operation, new ConcurrentHashMap<>());
+        }
+    }
+
+    @Override
+    public void recordSuccess(Operation operation, String kid, long durationNanos) {
+        stats(operation, kid).record(durationNanos);
+    }
+
+    @Override
+    public void recordFailure(Operation operation, String kid) {
+        stats(operation, kid).failures.increment();
+    }
+
+    @Override
+    public void recordLegacyFallback(boolean clearText) {
+        (clearText ? legacyClearText : legacyDecrypted).increment();
+    }
+
+    /**
+     * @param operation The operation
+     * @param kid       Key identifier
+     * @return the number of successful operations
+     */
+    public long getCount(Operation operation, String kid) {
+        Stats s = stats.get(operation).get(String.valueOf(kid));
+        return s == null ? 0 : s.count.sum();
+    }
+
+    /**
+     * @param operation The operation
+     * @param kid       Key identifier
+     * @return the number of failed operations
+     */
+    public long getFailures(Operation operation, String kid) {
+        Stats s = stats.get(operation).get(String.valueOf(kid));
+        return s == null ? 0 : s.failures.sum();
+    }
+
+    /**
+     * @param operation The operation
+     * @param kid       Key identifier
+     * @return the cumulated duration of the successful operations, in nanoseconds
+     */
+    public long getTotalNanos(Operation operation, String kid) {
+        Stats s = stats.get(operation).get(String.valueOf(kid));
+        return s == null ? 0 : s.totalNanos.sum();
+    }
+
+    /**
+     * @param operation The operation
+     * @param kid       Key identifier
+     * @return the latency histogram of the successful operations, {@link #HISTOGRAM_BUCKETS} values
+     */
+    public long[] getHistogram(Operation operation, String kid) {
+        long[] res = new long[HISTOGRAM_BUCKETS];
+        Stats s = stats.get(operation).get(String.valueOf(kid));
+        if (s != null) {
+            for (int i = 0; i < HISTOGRAM_BUCKETS; i++) {
+                res[i] = s.histogram[i].sum();
+            }
+        }
+        return res;
+    }
+
+    /**
+     * @return the number of values without envelope decrypted with one of the keys
+     */
+    public long getLegacyDecrypted() {
+        return legacyDecrypted.sum();
+    }
+
+    /**
+     * @return the number of values without envelope considered as clear text
+     */
+    public long getLegacyClearText() {
+        return legacyClearText.sum();
+    }
+
+    private Stats stats(Operation operation, String kid) {
+        Map<String, Stats> statsByKid = stats.get(operation);
+        String key = String.valueOf(kid);
+        Stats res = statsByKid.get(key);
+        return res != null ? res : statsByKid.computeIfAbsent(key, k -> new Stats());
+    }
+
+    private static class Stats {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAdder[] histogram = new LongAdder[HISTOGRAM_BUCKETS];
+
+        private Stats() {
+            for (int i = 0; i < HISTOGRAM_BUCKETS; i++) {
+                histogram[i] = new LongAdder();
+            }
+        }
+
+        private void record(long durationNanos) {
+            count.increment();
+            totalNanos.add(durationNanos);
+            long micros = TimeUnit.NANOSECONDS.toMicros(durationNanos);
+            int bucket = micros <= 0 ? 0 : 64 - Long.numberOfLeadingZeros(micros);
+            histogram[Math.min(bucket, HISTOGRAM_BUCKETS - 1)].increment();
+        }
+    }
+}
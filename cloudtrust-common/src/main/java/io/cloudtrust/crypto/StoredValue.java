@@ -0,0 +1,22 @@
+package io.cloudtrust.crypto;
+
+/**
+ * A value stored in the database, with the identifier of the row/attribute holding it
+ */
+public class StoredValue {
+    private final String id;
+    private final String value;
+
+    public StoredValue(String id, String value) {
+        this.id = id;
+        this.value = value;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getValue() {
+        return value;
+    }
+}
@@ -0,0 +1,57 @@
+package io.cloudtrust.json;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+/**
+ * Shared Jackson infrastructure.
+ * The underlying ObjectMapper is built once and never exposed, so that it cannot be reconfigured: callers get
+ * immutable and thread-safe ObjectReader/ObjectWriter instances that are meant to be kept in static fields.
+ */
+public class JsonUtil {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final ObjectWriter WRITER = MAPPER.writer();
+
+    //Avoid class instantiation
+    private JsonUtil() {
+    }
+
+    /**
+     * Creates a reader for the given type
+     *
+     * @param type Type of the values to read
+     * @return A thread-safe reader
+     */
+    public static ObjectReader readerFor(Class<?> type) {
+        return MAPPER.readerFor(type);
+    }
+
+    /**
+     * Creates a reader for the given generic type
+     *
+     * @param type Type of the values to read
+     * @return A thread-safe reader
+     */
+    public static ObjectReader readerFor(TypeReference<?> type) {
+        return MAPPER.readerFor(type);
+    }
+
+    /**
+     * Creates a writer for the given type
+     *
+     * @param type Type of the values to write
+     * @return A thread-safe writer
+     */
+    public static ObjectWriter writerFor(Class<?> type) {
+        return MAPPER.writerFor(type);
+    }
+
+    /**
+     * @return A thread-safe writer which serializes values according to their runtime type
+     */
+    public static ObjectWriter writer() {
+        return WRITER;
+    }
+}
@@ -0,0 +1,74 @@
+package io.cloudtrust.crypto;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Set;
+
+class BlindIndexTest {
+    @BeforeEach
+    public void init() {
+        CryptoUtil.getDatabaseHmacKeys().setSource(() -> "[{\"kid\": \"TEH_1\", \"value\": \"T0xEX0tFWQ==\"}]");
+    }
+
+    @AfterEach
+    public void cleanup() {
+        CryptoUtil.clearKeys();
+    }
+
+    @Test
+    void testLength() {
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new BlindIndex(BlindIndex.MIN_LENGTH - 1));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new BlindIndex(BlindIndex.MAX_LENGTH + 1));
+
+        BlindIndex blindIndex = new BlindIndex(16);
+        Assertions.assertEquals(16, blindIndex.computeBytes("john.doe@example.com").length);
+        Assertions.assertEquals(22, blindIndex.compute("john.doe@example.com").length());
+        Assertions.assertEquals(64, new BlindIndex(64).computeBytes("john.doe@example.com").length);
+    }
+
+    @Test
+    void testDeterministic() {
+        BlindIndex blindIndex = new BlindIndex(12);
+        Assertions.assertEquals(blindIndex.compute("+41791234567"), blindIndex.compute("+41791234567"));
+        Assertions.assertNotEquals(blindIndex.compute("+41791234567"), blindIndex.compute("+41791234568"));
+        // truncated digest is a prefix of the longer one
+        Assertions.assertArrayEquals(blindIndex.computeBytes("abc"), Arrays.copyOf(new BlindIndex(32).computeBytes("abc"), 12));
+    }
+
+    @Test
+    void testIndependentFromDatabaseHmac() {
+        BlindIndex blindIndex = new BlindIndex(BlindIndex.MAX_LENGTH);
+        String hmac = CryptoUtil.computeHmacForDatabaseStorage("Vjohn.doe@example.com");
+        Assertions.assertFalse(Arrays.equals(Base64.getDecoder().decode(hmac), blindIndex.computeBytes("john.doe@example.com")));
+        Assertions.assertFalse(Arrays.equals(Base64.getDecoder().decode(CryptoUtil.computeHmacForDatabaseStorage("john.doe@example.com")),
+                blindIndex.computeBytes("john.doe@example.com")));
+    }
+
+    @Test
+    void testPrefixTokens() {
+        BlindIndex blindIndex = new BlindIndex(8);
+        Set<String> tokens = blindIndex.prefixTokens("john.doe", 3);
+        Assertions.assertEquals(6, tokens.size());
+        Assertions.assertTrue(tokens.contains(blindIndex.computePrefix("joh")));
+        Assertions.assertTrue(tokens.contains(blindIndex.computePrefix("john.doe")));
+        Assertions.assertFalse(tokens.contains(blindIndex.computePrefix("jo")));
+        // prefix tokens and value index belong to distinct domains
+        Assertions.assertNotEquals(blindIndex.compute("john.doe"), blindIndex.computePrefix("john.doe"));
+    }
+
+    @Test
+    void testNgramTokens() {
+        BlindIndex blindIndex = new BlindIndex(8);
+        Set<String> tokens = blindIndex.ngramTokens("doe@example", 3);
+        Assertions.assertEquals(9, tokens.size());
+        Assertions.assertTrue(tokens.containsAll(blindIndex.ngramTokens("example", 3)));
+        Assertions.assertFalse(tokens.containsAll(blindIndex.ngramTokens("sample", 3)));
+        Assertions.assertTrue(blindIndex.ngramTokens("ab", 3).isEmpty());
+        Assertions.assertThrows(IllegalArgumentException.class, () -> blindIndex.ngramTokens("abc", 0));
+    }
+}
@@ -0,0 +1,88 @@
+package io.cloudtrust.crypto;
+
+import io.cloudtrust.crypto.CryptoMetrics.Operation;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+class CryptoMetricsTest {
+    private static final String KEYS = "[{\"kid\": \"TEE_1\", \"value\": \"T0xEX0tFWV9PTERfS0VZIQ==\"}]";
+
+    private SimpleCryptoMetrics metrics;
+
+    @BeforeEach
+    public void init() {
+        CryptoUtil.getDatabaseEncryptionKeys().setSource(() -> KEYS);
+        CryptoUtil.getDatabaseHmacKeys().setSource(() -> KEYS);
+        metrics = new SimpleCryptoMetrics();
+        CryptoUtil.setCryptoMetrics(metrics);
+    }
+
+    @AfterEach
+    public void clear() {
+        CryptoUtil.clearKeys();
+    }
+
+    @Test
+    void testOperationsAreRecorded() {
+        byte[] plainText = "value".getBytes(StandardCharsets.UTF_8);
+        String encrypted = CryptoUtil.encryptForDatabaseStorage(plainText);
+        CryptoUtil.decryptFromDatabaseStorage(encrypted);
+        CryptoUtil.decryptFromDatabaseStorage(encrypted);
+        CryptoUtil.computeHmacForDatabaseStorage("value");
+
+        Assertions.assertEquals(1, metrics.getCount(Operation.ENCRYPT, "TEE_1"));
+        Assertions.assertEquals(2, metrics.getCount(Operation.DECRYPT, "TEE_1"));
+        Assertions.assertEquals(1, metrics.getCount(Operation.HMAC, "TEE_1"));
+        Assertions.assertEquals(2, Arrays.stream(metrics.getHistogram(Operation.DECRYPT, "TEE_1")).sum());
+        Assertions.assertTrue(metrics.getTotalNanos(Operation.DECRYPT, "TEE_1") > 0);
+        Assertions.assertEquals(0, metrics.getCount(Operation.DECRYPT, "TEE_2"));
+    }
+
+    @Test
+    void testFailuresAreRecordedPerKid() {
+        String unknownKey = "{\"kid\":\"TEE_2\",\"val\":\"AAAA\"}";
+        Assertions.assertThrows(IllegalStateException.class, () -> CryptoUtil.decryptFromDatabaseStorage(unknownKey));
+        String altered = CryptoUtil.encryptForDatabaseStorage(new byte[16]).replace("\"val\":\"", "\"val\":\"AAAA");
+        Assertions.assertThrows(IllegalArgumentException.class, () -> CryptoUtil.decryptFromDatabaseStorage(altered));
+
+        Assertions.assertEquals(1, metrics.getFailures(Operation.DECRYPT, "TEE_2"));
+        Assertions.assertEquals(1, metrics.getFailures(Operation.DECRYPT, "TEE_1"));
+        Assertions.assertEquals(0, metrics.getCount(Operation.DECRYPT, "TEE_1"));
+    }
+
+    @Test
+    void testLegacyFallbacksAreRecorded() throws Exception {
+        String legacy = CryptoUtil.gcmEncrypt(CryptoUtil.getDatabaseEncryptionKeys().get().getCurrentKey(), "legacy value");
+        Assertions.assertArrayEquals("legacy value".getBytes(StandardCharsets.UTF_8), CryptoUtil.decryptFromDatabaseStorage(legacy));
+        CryptoUtil.decryptFromDatabaseStorage("clear text");
+        CryptoUtil.decryptFromDatabaseStorage("other clear text");
+
+        Assertions.assertEquals(1, metrics.getLegacyDecrypted());
+        Assertions.assertEquals(2, metrics.getLegacyClearText());
+    }
+
+    @Test
+    void testHistogramBuckets() {
+        metrics.recordSuccess(Operation.HMAC, "TEE_1", 500);
+        metrics.recordSuccess(Operation.HMAC, "TEE_1", TimeUnit.MICROSECONDS.toNanos(3));
+        metrics.recordSuccess(Operation.HMAC, "TEE_1", TimeUnit.SECONDS.toNanos(10));
+        long[] histogram = metrics.getHistogram(Operation.HMAC, "TEE_1");
+        Assertions.assertEquals(1, histogram[0]);
+        Assertions.assertEquals(1, histogram[2]);
+        Assertions.assertEquals(1, histogram[SimpleCryptoMetrics.HISTOGRAM_BUCKETS - 1]);
+    }
+
+    @Test
+    void testDisabledMetrics() {
+        CryptoUtil.setCryptoMetrics(null);
+        CryptoUtil.encryptForDatabaseStorage(new byte[16]);
+        Assertions.assertEquals(0, metrics.getCount(Operation.ENCRYPT, "TEE_1"));
+        Assertions.assertFalse(CryptoMetrics.NOOP.isEnabled());
+    }
+}
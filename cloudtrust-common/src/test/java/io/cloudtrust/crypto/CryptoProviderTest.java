@@ -0,0 +1,83 @@
+package io.cloudtrust.crypto;
+
+import com.github.stefanbirkner.systemlambda.SystemLambda;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.NoSuchPaddingException;
+import java.nio.charset.StandardCharsets;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class CryptoProviderTest {
+    @AfterEach
+    public void clear() {
+        CryptoUtil.clearKeys();
+    }
+
+    @Test
+    void testFromName() {
+        Assertions.assertSame(CryptoProvider.jce(), CryptoProvider.fromName(null));
+        Assertions.assertSame(CryptoProvider.jce(), CryptoProvider.fromName(" "));
+        Assertions.assertSame(CryptoProvider.jce(), CryptoProvider.fromName("default"));
+        Assertions.assertEquals("SunJCE", CryptoProvider.fromName("SunJCE").getName());
+        Assertions.assertThrows(IllegalStateException.class, () -> CryptoProvider.fromName("unknown-provider"));
+    }
+
+    @Test
+    void testSelectedFromEnvironment() throws Exception {
+        CryptoProvider provider = SystemLambda.withEnvironmentVariable("CRYPTO_PROVIDER", "SunJCE")
+                .execute(CryptoUtil::getCryptoProvider);
+        Assertions.assertEquals("SunJCE", provider.getName());
+    }
+
+    @Test
+    void testEnginesUseSelectedProvider() {
+        CryptoUtil.getDatabaseEncryptionKeys().setSource(() -> "[{\"kid\": \"TEE_1\", \"value\": \"T0xEX0tFWV9PTERfS0VZIQ==\"}]");
+        CryptoUtil.getDatabaseHmacKeys().setSource(() -> "[{\"kid\": \"TEE_1\", \"value\": \"T0xEX0tFWV9PTERfS0VZIQ==\"}]");
+        byte[] plainText = "value".getBytes(StandardCharsets.UTF_8);
+        String encrypted = CryptoUtil.encryptForDatabaseStorage(plainText);
+        String hmac = CryptoUtil.computeHmacForDatabaseStorage("value");
+
+        CountingProvider provider = new CountingProvider(CryptoProvider.jca("SunJCE"));
+        CryptoUtil.setCryptoProvider(provider);
+        Assertions.assertArrayEquals(plainText, CryptoUtil.decryptFromDatabaseStorage(encrypted));
+        Assertions.assertArrayEquals(plainText, CryptoUtil.decryptFromDatabaseStorage(CryptoUtil.encryptForDatabaseStorage(plainText)));
+        Assertions.assertEquals(hmac, CryptoUtil.computeHmacForDatabaseStorage("value"));
+        Assertions.assertEquals(hmac, CryptoUtil.computeHmacForDatabaseStorage("value"));
+
+        // instances are created once per thread
+        Assertions.assertEquals(1, provider.ciphers.get());
+        Assertions.assertEquals(1, provider.macs.get());
+    }
+
+    private static class CountingProvider implements CryptoProvider {
+        private final CryptoProvider delegate;
+        private final AtomicInteger ciphers = new AtomicInteger();
+        private final AtomicInteger macs = new AtomicInteger();
+
+        private CountingProvider(CryptoProvider delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public String getName() {
+            return "counting";
+        }
+
+        @Override
+        public Cipher createCipher(String transformation) throws NoSuchAlgorithmException, NoSuchPaddingException {
+            ciphers.incrementAndGet();
+            return delegate.createCipher(transformation);
+        }
+
+        @Override
+        public Mac createMac(String algorithm) throws NoSuchAlgorithmException {
+            macs.incrementAndGet();
+            return delegate.createMac(algorithm);
+        }
+    }
+}
@@ -6,7 +6,10 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Base64;
+import java.util.Map;
 
 class CryptoUtilHmacTest {
     private static final String DB_HMAC_KEY_ENV_VAR_NAME = "DB_HMAC_KEY";
@@ -33,6 +36,43 @@ class CryptoUtilHmacTest {
                 .execute(() -> Assertions.assertDoesNotThrow(() -> CryptoUtil.computeHmacForDatabaseStorage(textToMac)));
     }
 
+    @Test
+    void testHmacIsStable() throws Exception {
+        String textToMac = "Test-String";
+        SystemLambda.withEnvironmentVariable(DB_HMAC_KEY_ENV_VAR_NAME, this.keyStructure)
+                .execute(() -> Assertions.assertEquals(CryptoUtil.computeHmacForDatabaseStorage(textToMac),
+                        CryptoUtil.computeHmacForDatabaseStorage(textToMac)));
+    }
+
+    @Test
+    void testHmacWithReloadedKey() throws Exception {
+        String textToMac = "Test-String";
+        String hmac = SystemLambda.withEnvironmentVariable(DB_HMAC_KEY_ENV_VAR_NAME, this.keyStructure)
+                .execute(() -> CryptoUtil.computeHmacForDatabaseStorage(textToMac));
+
+        // same key id, different key value
+        CryptoUtil.clearKeys();
+        init();
+        String otherHmac = SystemLambda.withEnvironmentVariable(DB_HMAC_KEY_ENV_VAR_NAME, this.keyStructure)
+                .execute(() -> CryptoUtil.computeHmacForDatabaseStorage(textToMac));
+        Assertions.assertNotEquals(hmac, otherHmac);
+    }
+
+    @Test
+    void testHmacsWithAllKeys() throws Exception {
+        String textToMac = "Test-String";
+        String oldHmac = SystemLambda.withEnvironmentVariable(DB_HMAC_KEY_ENV_VAR_NAME, "[{\"kid\": \"TEH_1\", \"value\": \"T0xEX0tFWQ==\"}]")
+                .execute(() -> CryptoUtil.computeHmacForDatabaseStorage(textToMac));
+        CryptoUtil.clearKeys();
+
+        SystemLambda.withEnvironmentVariable(DB_HMAC_KEY_ENV_VAR_NAME, this.keyStructure)
+                .execute(() -> {
+                    Map<String, String> hmacs = CryptoUtil.computeHmacsForDatabaseStorage(textToMac);
+                    Assertions.assertEquals(Arrays.asList("TEH_2", "TEH_1"), new ArrayList<>(hmacs.keySet()));
+                    Assertions.assertEquals(CryptoUtil.computeHmacForDatabaseStorage(textToMac), hmacs.get("TEH_2"));
+                    Assertions.assertEquals(oldHmac, hmacs.get("TEH_1"));
+                });
+    }
 
     @Test
     void testNoEnvVariableDefined() {
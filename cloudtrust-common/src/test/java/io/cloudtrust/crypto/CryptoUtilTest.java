@@ -10,10 +10,19 @@ import javax.crypto.BadPaddingException;
 import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.KeyGenerator;
 import javax.crypto.SecretKey;
+import javax.crypto.ShortBufferException;
 import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.hamcrest.MatcherAssert.assertThat;
@@ -79,6 +88,137 @@ class CryptoUtilTest {
         assertThat(testString, Matchers.is(decryptedString));
     }
 
+    @Test
+    void testGcmEncryptDecryptConcurrently() throws Exception {
+        KeyGenerator keyGen = KeyGenerator.getInstance("AES");
+        keyGen.init(256);
+        SecretKey secretKey = keyGen.generateKey();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                String text = "Concurrent value #" + i;
+                results.add(executor.submit(() -> text.equals(CryptoUtil.gcmDecrypt(secretKey, CryptoUtil.gcmEncrypt(secretKey, text)))));
+            }
+            for (Future<Boolean> result : results) {
+                Assertions.assertTrue(result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void testGcmByteBufferEncryptDecrypt() throws Exception {
+        KeyGenerator keyGen = KeyGenerator.getInstance("AES");
+        keyGen.init(256);
+        SecretKey secretKey = keyGen.generateKey();
+        byte[] plainText = "This is a test string to encrypt and decrypt!".getBytes(StandardCharsets.UTF_8);
+
+        ByteBuffer input = ByteBuffer.allocateDirect(plainText.length);
+        input.put(plainText).flip();
+        ByteBuffer encrypted = ByteBuffer.allocateDirect(CryptoUtil.gcmEncryptedSize(plainText.length));
+        assertThat(CryptoUtil.gcmEncrypt(secretKey, input, encrypted), equalTo(encrypted.capacity()));
+        encrypted.flip();
+
+        // compatible with the array-based API
+        byte[] encryptedBytes = new byte[encrypted.remaining()];
+        encrypted.duplicate().get(encryptedBytes);
+        assertThat(CryptoUtil.gcmDecryptData(secretKey, Base64.getEncoder().encodeToString(encryptedBytes)), equalTo(plainText));
+
+        ByteBuffer decrypted = ByteBuffer.allocateDirect(CryptoUtil.gcmDecryptedSize(encrypted.remaining()));
+        assertThat(CryptoUtil.gcmDecrypt(secretKey, encrypted, decrypted), equalTo(plainText.length));
+        decrypted.flip();
+        byte[] decryptedBytes = new byte[decrypted.remaining()];
+        decrypted.get(decryptedBytes);
+        assertThat(decryptedBytes, equalTo(plainText));
+
+        Assertions.assertThrows(ShortBufferException.class, () -> CryptoUtil.gcmEncrypt(secretKey, ByteBuffer.wrap(plainText), ByteBuffer.allocate(plainText.length)));
+    }
+
+    @Test
+    void testGcmEncryptUsesDistinctIVs() throws NoSuchAlgorithmException, IllegalBlockSizeException, BadPaddingException {
+        KeyGenerator keyGen = KeyGenerator.getInstance("AES");
+        keyGen.init(256);
+        SecretKey secretKey = keyGen.generateKey();
+        assertThat(CryptoUtil.gcmEncrypt(secretKey, "same value"), Matchers.not(CryptoUtil.gcmEncrypt(secretKey, "same value")));
+    }
+
+    @Test
+    void testBatchEncryptionDecryption() throws Exception {
+        List<byte[]> plainTexts = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            plainTexts.add(("value #" + i).getBytes(StandardCharsets.UTF_8));
+        }
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            SystemLambda.withEnvironmentVariable(DB_ENCRYPTION_KEY_ENV_VAR_NAME, "[{\"kid\": \"TEE_3\", \"value\": \"T0xEX0tFWV9PTERfS0VZIQ==\"}]")
+                    .execute(() -> {
+                        List<String> sequential = CryptoUtil.encryptAllForDatabaseStorage(plainTexts);
+                        List<String> parallel = CryptoUtil.encryptAllForDatabaseStorage(plainTexts, pool);
+                        for (int i = 0; i < plainTexts.size(); i++) {
+                            assertThat(CryptoUtil.decryptAllFromDatabaseStorage(sequential).get(i), equalTo(plainTexts.get(i)));
+                            assertThat(CryptoUtil.decryptAllFromDatabaseStorage(parallel, pool).get(i), equalTo(plainTexts.get(i)));
+                        }
+                    });
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void testBinaryEncryptionDecryption() throws Exception {
+        byte[] plainText = new byte[32];
+        new SecureRandom().nextBytes(plainText);
+        SystemLambda.withEnvironmentVariable(DB_ENCRYPTION_KEY_ENV_VAR_NAME, "[{\"kid\": \"TEE_3\", \"value\": \"T0xEX0tFWV9PTERfS0VZIQ==\"}]")
+                .and("DB_ENCRYPTION_FORMAT", "binary")
+                .execute(() -> {
+                    Assertions.assertEquals(EnvelopeFormat.BINARY, CryptoUtil.getDatabaseStorageFormat());
+                    byte[] binary = CryptoUtil.encryptForBinaryDatabaseStorage(plainText);
+                    // header (3 bytes) + kid + IV + tag
+                    Assertions.assertEquals(3 + 5 + 12 + plainText.length + 16, binary.length);
+                    assertThat(CryptoUtil.decryptFromBinaryDatabaseStorage(binary), equalTo(plainText));
+                    assertThat(binary.length, lessThan(CryptoUtil.encryptForDatabaseStorage(plainText).length()));
+
+                    // textual formats are still decoded
+                    byte[] json = CryptoUtil.encryptForDatabaseStorage(plainText).getBytes(StandardCharsets.UTF_8);
+                    assertThat(CryptoUtil.decryptFromBinaryDatabaseStorage(json), equalTo(plainText));
+                    assertThat(CryptoUtil.decryptFromBinaryDatabaseStorage("TEST_value".getBytes(StandardCharsets.UTF_8)),
+                            equalTo("TEST_value".getBytes(StandardCharsets.UTF_8)));
+
+                    CryptoUtil.setDatabaseStorageFormat(EnvelopeFormat.JSON);
+                    byte[] jsonBytes = CryptoUtil.encryptForBinaryDatabaseStorage(plainText);
+                    Assertions.assertEquals('{', jsonBytes[0]);
+                    assertThat(CryptoUtil.decryptFromBinaryDatabaseStorage(jsonBytes), equalTo(plainText));
+
+                    binary[binary.length - 1] ^= 1;
+                    Assertions.assertThrows(IllegalArgumentException.class, () -> CryptoUtil.decryptFromBinaryDatabaseStorage(binary));
+
+                    // null literals are not ambiguous
+                    Assertions.assertNull(CryptoUtil.decryptFromDatabaseStorage(null));
+                    Assertions.assertNull(CryptoUtil.decryptFromBinaryDatabaseStorage(null));
+                });
+    }
+
+    @Test
+    void testBinaryEncryptionDecryptionWithEmptyKey() throws Exception {
+        byte[] plainText = "TEST".getBytes(StandardCharsets.UTF_8);
+        CryptoUtil.setDatabaseStorageFormat(EnvelopeFormat.BINARY);
+        SystemLambda.withEnvironmentVariable(DB_ENCRYPTION_KEY_ENV_VAR_NAME, "[{\"kid\": \"TEE_3\", \"value\": \"\"}]")
+                .execute(() -> {
+                    byte[] binary = CryptoUtil.encryptForBinaryDatabaseStorage(plainText);
+                    Assertions.assertEquals(3 + 5 + plainText.length, binary.length);
+                    assertThat(CryptoUtil.decryptFromBinaryDatabaseStorage(binary), equalTo(plainText));
+                });
+    }
+
+    @Test
+    void testUnknownStorageFormat() {
+        Assertions.assertEquals(EnvelopeFormat.JSON, EnvelopeFormat.fromString(null));
+        Assertions.assertEquals(EnvelopeFormat.BINARY, EnvelopeFormat.fromString(" Binary "));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> EnvelopeFormat.fromString("xml"));
+    }
+
     @Test
     void testNoEnvVariableDefined() {
         // By default, DB_ENCRYPTION_KEY_ENV_VAR_NAME env variable is not set
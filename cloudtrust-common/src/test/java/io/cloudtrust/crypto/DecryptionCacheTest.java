@@ -0,0 +1,135 @@
+package io.cloudtrust.crypto;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+class DecryptionCacheTest {
+    private final AtomicLong now = new AtomicLong();
+
+    @AfterEach
+    public void clear() {
+        CryptoUtil.clearKeys();
+    }
+
+    @Test
+    void testGetReturnsCopies() {
+        DecryptionCache cache = new DecryptionCache(10, 1000, now::get);
+        byte[] plainText = "value".getBytes(StandardCharsets.UTF_8);
+        cache.put("encrypted", plainText);
+        plainText[0] = 0;
+
+        byte[] cached = cache.get("encrypted");
+        Assertions.assertArrayEquals("value".getBytes(StandardCharsets.UTF_8), cached);
+        cached[0] = 0;
+        Assertions.assertArrayEquals("value".getBytes(StandardCharsets.UTF_8), cache.get("encrypted"));
+        Assertions.assertNull(cache.get("other"));
+    }
+
+    @Test
+    void testExpiration() {
+        DecryptionCache cache = new DecryptionCache(10, 1000, now::get);
+        cache.put("encrypted1", new byte[]{1});
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(600));
+        cache.put("encrypted2", new byte[]{2});
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(600));
+
+        Assertions.assertNull(cache.get("encrypted1"));
+        Assertions.assertArrayEquals(new byte[]{2}, cache.get("encrypted2"));
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(600));
+        Assertions.assertEquals(1, cache.size());
+        cache.purgeExpired();
+        Assertions.assertEquals(0, cache.size());
+    }
+
+    @Test
+    void testExpiredValuesAreSweptOnAccess() {
+        DecryptionCache cache = new DecryptionCache(10, 1000, now::get);
+        for (int i = 0; i < 3; i++) {
+            cache.put("encrypted" + i, new byte[]{(byte) (i + 1)});
+        }
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(1100));
+        Assertions.assertEquals(3, cache.size());
+
+        // writing another value wipes the expired ones, even if they are never read again
+        cache.put("other", new byte[]{9});
+        Assertions.assertEquals(1, cache.size());
+        Assertions.assertArrayEquals(new byte[]{9}, cache.get("other"));
+    }
+
+    @Test
+    void testEvictionIsLeastRecentlyUsed() {
+        DecryptionCache cache = new DecryptionCache(2, 1000, now::get);
+        cache.put("encrypted1", new byte[]{1});
+        cache.put("encrypted2", new byte[]{2});
+        cache.get("encrypted1");
+        cache.put("encrypted3", new byte[]{3});
+
+        Assertions.assertEquals(2, cache.size());
+        Assertions.assertNotNull(cache.get("encrypted1"));
+        Assertions.assertNull(cache.get("encrypted2"));
+        Assertions.assertNotNull(cache.get("encrypted3"));
+        cache.clear();
+        Assertions.assertEquals(0, cache.size());
+    }
+
+    @Test
+    void testConcurrentAccessToSegments() throws Exception {
+        DecryptionCache cache = new DecryptionCache(1000, 1000, now::get);
+        Assertions.assertEquals(8, cache.getSegmentCount());
+        Assertions.assertEquals(1, new DecryptionCache(127, 1000, now::get).getSegmentCount());
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                int thread = t;
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 2000; i++) {
+                        String encrypted = "encrypted" + thread + "_" + i;
+                        cache.put(encrypted, new byte[]{(byte) i});
+                        // the value may already have been evicted by the other threads
+                        byte[] cached = cache.get(encrypted);
+                        Assertions.assertTrue(cached == null || cached[0] == (byte) i);
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        // each segment is bounded
+        Assertions.assertTrue(cache.size() <= 1000);
+        Assertions.assertTrue(cache.size() > 900);
+    }
+
+    @Test
+    void testUsedByCryptoUtil() {
+        CryptoUtil.getDatabaseEncryptionKeys().setSource(() -> "[{\"kid\": \"TEE_1\", \"value\": \"T0xEX0tFWV9PTERfS0VZIQ==\"}]");
+        String encrypted = CryptoUtil.encryptForDatabaseStorage("value".getBytes(StandardCharsets.UTF_8));
+        DecryptionCache cache = new DecryptionCache(10, 1000, now::get);
+        CryptoUtil.setDecryptionCache(cache);
+
+        Assertions.assertArrayEquals("value".getBytes(StandardCharsets.UTF_8), CryptoUtil.decryptFromDatabaseStorage(encrypted));
+        Assertions.assertEquals(1, cache.size());
+
+        // repeated decryptions are served by the cache
+        cache.put(encrypted, "cached".getBytes(StandardCharsets.UTF_8));
+        Assertions.assertArrayEquals("cached".getBytes(StandardCharsets.UTF_8), CryptoUtil.decryptFromDatabaseStorage(encrypted));
+
+        CryptoUtil.setDecryptionCache(null);
+        Assertions.assertEquals(0, cache.size());
+        Assertions.assertArrayEquals("value".getBytes(StandardCharsets.UTF_8), CryptoUtil.decryptFromDatabaseStorage(encrypted));
+    }
+}
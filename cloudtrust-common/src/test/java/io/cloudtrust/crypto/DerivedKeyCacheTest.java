@@ -0,0 +1,100 @@
+package io.cloudtrust.crypto;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.SecretKey;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+class DerivedKeyCacheTest {
+    private static final String KEY_1 = "{\"kid\": \"TEE_1\", \"value\": \"T0xEX0tFWV9PTERfS0VZIQ==\"}";
+    private static final String KEY_2 = "{\"kid\": \"TEE_2\", \"value\": \"TkVXX0tFWV9ORVdfS0VZIQ==\"}";
+
+    @BeforeEach
+    public void init() {
+        CryptoUtil.getDatabaseEncryptionKeys().setSource(() -> "[" + KEY_1 + "]");
+    }
+
+    @AfterEach
+    public void clear() {
+        CryptoUtil.clearKeys();
+    }
+
+    @Test
+    void testHkdfRfc5869Vector() throws Exception {
+        // RFC 5869, test case 3: empty salt and info
+        byte[] ikm = new byte[22];
+        Arrays.fill(ikm, (byte) 0x0b);
+        byte[] okm = DerivedKeyCache.hkdf(ikm, new byte[0], 42);
+        Assertions.assertEquals("8da4e775a563c18f715f802a063c5a31b8a11f5c5ee1879ec3454e5f3c738d2d9d201395faa4b61a96c8", toHex(okm));
+    }
+
+    @Test
+    void testHkdfWithSaltRfc5869Vector() throws Exception {
+        // RFC 5869, test case 1
+        byte[] ikm = new byte[22];
+        Arrays.fill(ikm, (byte) 0x0b);
+        byte[] salt = new byte[13];
+        for (int i = 0; i < salt.length; i++) {
+            salt[i] = (byte) i;
+        }
+        byte[] info = new byte[10];
+        for (int i = 0; i < info.length; i++) {
+            info[i] = (byte) (0xf0 + i);
+        }
+        byte[] okm = DerivedKeyCache.hkdf(salt, ikm, info, 42);
+        Assertions.assertEquals("3cb25f25faacd57a90434f64d0362f2a2d2d0a90cf1a5a4c5db02d56ecc4c5bf34007208d5b887185865", toHex(okm));
+    }
+
+    @Test
+    void testDerivedKeysAreCached() {
+        DerivedKeyCache cache = new DerivedKeyCache();
+        SecretKey master = CryptoUtil.getDatabaseEncryptionKeys().get().getCurrentKey();
+        SecretKey email = cache.get("TEE_1", master, "email");
+        Assertions.assertSame(email, cache.get("TEE_1", master, "email"));
+        Assertions.assertEquals(master.getEncoded().length, email.getEncoded().length);
+        Assertions.assertFalse(Arrays.equals(master.getEncoded(), email.getEncoded()));
+        Assertions.assertFalse(Arrays.equals(email.getEncoded(), cache.get("TEE_1", master, "phone").getEncoded()));
+
+        // reloaded master key
+        SecretKey reloaded = CryptoUtil.getDatabaseEncryptionKeys().reload().getCurrentKey();
+        SecretKey derived = cache.get("TEE_1", reloaded, "email");
+        Assertions.assertNotSame(email, derived);
+        Assertions.assertArrayEquals(email.getEncoded(), derived.getEncoded());
+    }
+
+    @Test
+    void testPurposeEncryption() {
+        byte[] plainText = "john@example.com".getBytes(StandardCharsets.UTF_8);
+        String encrypted = CryptoUtil.encryptForDatabaseStorage("email", plainText);
+        Assertions.assertArrayEquals(plainText, CryptoUtil.decryptFromDatabaseStorage("email", encrypted));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> CryptoUtil.decryptFromDatabaseStorage("phone", encrypted));
+        Assertions.assertArrayEquals(plainText, CryptoUtil.decryptFromDatabaseStorage(encrypted));
+        Assertions.assertEquals("email", EncryptedDataCodec.decode(encrypted).purpose);
+        Assertions.assertThrows(IllegalArgumentException.class, () -> CryptoUtil.decryptFromDatabaseStorage("email", "clear text"));
+        Assertions.assertNull(CryptoUtil.decryptFromDatabaseStorage("email", null));
+
+        // structure without purpose, encrypted with the key itself
+        String withoutPurpose = CryptoUtil.encryptForDatabaseStorage(plainText);
+        Assertions.assertArrayEquals(plainText, CryptoUtil.decryptFromDatabaseStorage("email", withoutPurpose));
+        CryptoUtil.EncryptedData encData = EncryptedDataCodec.decode(encrypted);
+        String purposeDropped = EncryptedDataCodec.encode(encData.kid, encData.val);
+        Assertions.assertThrows(IllegalArgumentException.class, () -> CryptoUtil.decryptFromDatabaseStorage("email", purposeDropped));
+
+        // still readable after a rotation
+        CryptoUtil.getDatabaseEncryptionKeys().setSource(() -> "[" + KEY_1 + "," + KEY_2 + "]");
+        Assertions.assertArrayEquals(plainText, CryptoUtil.decryptFromDatabaseStorage("email", encrypted));
+        Assertions.assertEquals("TEE_2", EncryptedDataCodec.decode(CryptoUtil.encryptForDatabaseStorage("email", plainText)).kid);
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : bytes) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+}
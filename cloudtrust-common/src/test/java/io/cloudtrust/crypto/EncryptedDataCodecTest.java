@@ -0,0 +1,78 @@
+package io.cloudtrust.crypto;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Base64;
+
+class EncryptedDataCodecTest {
+    @Test
+    void testEncodeDecode() {
+        String encoded = EncryptedDataCodec.encode("TEE_3", "dmFsdWU=");
+        Assertions.assertEquals("{\"kid\":\"TEE_3\",\"val\":\"dmFsdWU=\"}", encoded);
+
+        CryptoUtil.EncryptedData decoded = EncryptedDataCodec.decode(encoded);
+        Assertions.assertNotNull(decoded);
+        Assertions.assertEquals("TEE_3", decoded.kid);
+        Assertions.assertEquals("dmFsdWU=", decoded.val);
+    }
+
+    @Test
+    void testEncodeDecodePurpose() {
+        String encoded = EncryptedDataCodec.encode("TEE_3", "email", "dmFsdWU=");
+        Assertions.assertEquals("{\"kid\":\"TEE_3\",\"p\":\"email\",\"val\":\"dmFsdWU=\"}", encoded);
+
+        CryptoUtil.EncryptedData decoded = EncryptedDataCodec.decode(encoded);
+        Assertions.assertNotNull(decoded);
+        Assertions.assertEquals("TEE_3", decoded.kid);
+        Assertions.assertEquals("email", decoded.purpose);
+        Assertions.assertEquals("dmFsdWU=", decoded.val);
+        Assertions.assertNull(EncryptedDataCodec.decode(EncryptedDataCodec.encode("TEE_3", "dmFsdWU=")).purpose);
+
+        decoded = EncryptedDataCodec.decode(EncryptedDataCodec.encode("TEE_3", "odd\"purpose", "dmFsdWU="));
+        Assertions.assertEquals("TEE_3", decoded.kid);
+        Assertions.assertEquals("odd\"purpose", decoded.purpose);
+
+        decoded = EncryptedDataCodec.decode("{\"val\": \"dmFsdWU=\", \"p\": \"phone\", \"kid\": \"TEE_2\"}");
+        Assertions.assertEquals("TEE_2", decoded.kid);
+        Assertions.assertEquals("phone", decoded.purpose);
+        Assertions.assertEquals("dmFsdWU=", decoded.val);
+    }
+
+    @Test
+    void testEncodeDecodeEscapedKid() {
+        String kid = "odd\"kid\\_1";
+        CryptoUtil.EncryptedData decoded = EncryptedDataCodec.decode(EncryptedDataCodec.encode(kid, "dmFsdWU="));
+        Assertions.assertNotNull(decoded);
+        Assertions.assertEquals(kid, decoded.kid);
+        Assertions.assertEquals("dmFsdWU=", decoded.val);
+    }
+
+    @Test
+    void testDecodeNonCanonicalLayout() {
+        CryptoUtil.EncryptedData decoded = EncryptedDataCodec.decode(" { \"val\": \"dmFsdWU=\", \"kid\": \"TEE_2\" }");
+        Assertions.assertNotNull(decoded);
+        Assertions.assertEquals("TEE_2", decoded.kid);
+        Assertions.assertEquals("dmFsdWU=", decoded.val);
+    }
+
+    @Test
+    void testDecodeNotAnEnvelope() {
+        Assertions.assertNull(EncryptedDataCodec.decode(null));
+        Assertions.assertNull(EncryptedDataCodec.decode(""));
+        Assertions.assertNull(EncryptedDataCodec.decode("TEST_value"));
+        Assertions.assertNull(EncryptedDataCodec.decode("{not json"));
+        Assertions.assertNull(EncryptedDataCodec.decode("{\"kid\": \"TEE_2\", \"other\": \"x\"}"));
+        Assertions.assertNull(EncryptedDataCodec.decode("{\"kid\": 12}"));
+    }
+
+    @Test
+    void testIsBase64GcmData() {
+        Assertions.assertTrue(EncryptedDataCodec.isBase64GcmData(Base64.getEncoder().encodeToString(new byte[28])));
+        Assertions.assertTrue(EncryptedDataCodec.isBase64GcmData(Base64.getEncoder().encodeToString(new byte[29])));
+        Assertions.assertTrue(EncryptedDataCodec.isBase64GcmData(Base64.getEncoder().encodeToString(new byte[30])));
+        Assertions.assertFalse(EncryptedDataCodec.isBase64GcmData(Base64.getEncoder().encodeToString(new byte[27])));
+        Assertions.assertFalse(EncryptedDataCodec.isBase64GcmData("TEST_value"));
+        Assertions.assertFalse(EncryptedDataCodec.isBase64GcmData("This is a sentence, not base64 encoded data!!"));
+    }
+}
@@ -0,0 +1,122 @@
+package io.cloudtrust.crypto;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+class EnvelopeEncryptionTest {
+    private static final String KEY_1 = "{\"kid\": \"TEE_1\", \"value\": \"T0xEX0tFWV9PTERfS0VZIQ==\"}";
+    private static final String KEY_2 = "{\"kid\": \"TEE_2\", \"value\": \"TkVXX0tFWV9ORVdfS0VZIQ==\"}";
+
+    private InMemoryDataKeyStore store;
+
+    @BeforeEach
+    public void init() {
+        CryptoUtil.getDatabaseEncryptionKeys().setSource(() -> "[" + KEY_1 + "]");
+        store = new InMemoryDataKeyStore();
+    }
+
+    @AfterEach
+    public void clear() {
+        CryptoUtil.clearKeys();
+    }
+
+    @Test
+    void testEncryptDecrypt() {
+        EnvelopeEncryption encryption = new EnvelopeEncryption(store, 10);
+        byte[] plainText = "secret value".getBytes(StandardCharsets.UTF_8);
+        String realm1 = encryption.encrypt("realm1", plainText);
+        String realm2 = encryption.encrypt("realm2", plainText);
+        Assertions.assertEquals(2, store.keys.size());
+        Assertions.assertArrayEquals(plainText, encryption.decrypt("realm1", realm1));
+        Assertions.assertArrayEquals(plainText, encryption.decrypt("realm2", realm2));
+        Assertions.assertNull(encryption.decrypt("realm1", null));
+
+        // data keys are distinct per realm
+        Assertions.assertThrows(IllegalArgumentException.class, () -> encryption.decrypt("realm2", realm1));
+        Assertions.assertThrows(IllegalStateException.class, () -> encryption.decrypt("realm3", realm1));
+
+        // data keys are read back from the store by another instance
+        Assertions.assertArrayEquals(plainText, new EnvelopeEncryption(store, 1).decrypt("realm1", realm1));
+    }
+
+    @Test
+    void testCacheIsBounded() {
+        EnvelopeEncryption encryption = new EnvelopeEncryption(store, 1);
+        byte[] plainText = "value".getBytes(StandardCharsets.UTF_8);
+        String realm1 = encryption.encrypt("realm1", plainText);
+        encryption.encrypt("realm2", plainText);
+        int loads = store.loads;
+        Assertions.assertArrayEquals(plainText, encryption.decrypt("realm1", realm1));
+        Assertions.assertEquals(loads + 1, store.loads);
+        Assertions.assertArrayEquals(plainText, encryption.decrypt("realm1", realm1));
+        Assertions.assertEquals(loads + 1, store.loads);
+
+        encryption.invalidate("realm1");
+        Assertions.assertArrayEquals(plainText, encryption.decrypt("realm1", realm1));
+        Assertions.assertEquals(loads + 2, store.loads);
+    }
+
+    @Test
+    void testLeastRecentlyUsedKeyIsEvicted() {
+        EnvelopeEncryption encryption = new EnvelopeEncryption(store, 2);
+        byte[] plainText = "value".getBytes(StandardCharsets.UTF_8);
+        String realm1 = encryption.encrypt("realm1", plainText);
+        String realm2 = encryption.encrypt("realm2", plainText);
+        encryption.decrypt("realm1", realm1);
+        encryption.encrypt("realm3", plainText);
+
+        int loads = store.loads;
+        Assertions.assertArrayEquals(plainText, encryption.decrypt("realm1", realm1));
+        Assertions.assertEquals(loads, store.loads);
+        Assertions.assertArrayEquals(plainText, encryption.decrypt("realm2", realm2));
+        Assertions.assertEquals(loads + 1, store.loads);
+    }
+
+    @Test
+    void testRewrap() {
+        EnvelopeEncryption encryption = new EnvelopeEncryption(store, 10);
+        byte[] plainText = "value".getBytes(StandardCharsets.UTF_8);
+        String encrypted = encryption.encrypt("realm1", plainText);
+        Assertions.assertFalse(encryption.rewrap("realm1"));
+        Assertions.assertFalse(encryption.rewrap("unknown"));
+
+        CryptoUtil.getDatabaseEncryptionKeys().setSource(() -> "[" + KEY_1 + "," + KEY_2 + "]");
+        String before = store.keys.get("realm1");
+        Assertions.assertTrue(encryption.rewrap("realm1"));
+        Assertions.assertNotEquals(before, store.keys.get("realm1"));
+        Assertions.assertEquals("TEE_2", EncryptedDataCodec.decode(store.keys.get("realm1")).kid);
+        Assertions.assertFalse(encryption.rewrap("realm1"));
+
+        // the old master key is no longer needed
+        CryptoUtil.getDatabaseEncryptionKeys().setSource(() -> "[" + KEY_2 + "]");
+        Assertions.assertArrayEquals(plainText, new EnvelopeEncryption(store, 10).decrypt("realm1", encrypted));
+    }
+
+    private static class InMemoryDataKeyStore implements DataKeyStore {
+        private final Map<String, String> keys = new ConcurrentHashMap<>();
+        private int loads;
+
+        @Override
+        public String load(String realmId) {
+            loads++;
+            return keys.get(realmId);
+        }
+
+        @Override
+        public String storeIfAbsent(String realmId, String wrappedKey) {
+            String existing = keys.putIfAbsent(realmId, wrappedKey);
+            return existing == null ? wrappedKey : existing;
+        }
+
+        @Override
+        public void replace(String realmId, String wrappedKey) {
+            keys.put(realmId, wrappedKey);
+        }
+    }
+}
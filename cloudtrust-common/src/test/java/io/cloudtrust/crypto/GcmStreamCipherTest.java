@@ -0,0 +1,126 @@
+package io.cloudtrust.crypto;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.BadPaddingException;
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+class GcmStreamCipherTest {
+    private static final int SEGMENT_SIZE = 32;
+    private static final int HEADER_SIZE = 44;
+    private static SecretKey secretKey;
+
+    @BeforeAll
+    public static void initKey() throws Exception {
+        KeyGenerator keyGen = KeyGenerator.getInstance("AES");
+        keyGen.init(256);
+        secretKey = keyGen.generateKey();
+    }
+
+    @Test
+    void testEncryptDecrypt() throws Exception {
+        for (int size : new int[]{0, 1, SEGMENT_SIZE - 1, SEGMENT_SIZE, SEGMENT_SIZE + 1, 3 * SEGMENT_SIZE, 1000}) {
+            byte[] plainText = new byte[size];
+            new SecureRandom().nextBytes(plainText);
+            byte[] encrypted = encrypt(plainText);
+            int segments = Math.max(1, (size + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+            Assertions.assertEquals(HEADER_SIZE + size + 16 * segments, encrypted.length);
+            Assertions.assertArrayEquals(plainText, decrypt(encrypted));
+        }
+    }
+
+    @Test
+    void testDefaultSegmentSize() throws Exception {
+        byte[] plainText = new byte[GcmStreamCipher.DEFAULT_SEGMENT_SIZE * 2 + 5];
+        new SecureRandom().nextBytes(plainText);
+        ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+        GcmStreamCipher.encrypt(secretKey, new ByteArrayInputStream(plainText), encrypted);
+        Assertions.assertArrayEquals(plainText, decrypt(encrypted.toByteArray()));
+    }
+
+    @Test
+    void testTamperedStream() throws Exception {
+        byte[] encrypted = encrypt(new byte[3 * SEGMENT_SIZE + 10]);
+
+        // altered byte
+        byte[] altered = encrypted.clone();
+        altered[20] ^= 1;
+        Assertions.assertThrows(BadPaddingException.class, () -> decrypt(altered));
+
+        // truncated on a segment boundary
+        byte[] truncated = Arrays.copyOf(encrypted, HEADER_SIZE + 2 * (SEGMENT_SIZE + 16));
+        Assertions.assertThrows(BadPaddingException.class, () -> decrypt(truncated));
+
+        // swapped segments
+        byte[] swapped = encrypted.clone();
+        System.arraycopy(encrypted, HEADER_SIZE, swapped, HEADER_SIZE + SEGMENT_SIZE + 16, SEGMENT_SIZE + 16);
+        System.arraycopy(encrypted, HEADER_SIZE + SEGMENT_SIZE + 16, swapped, HEADER_SIZE, SEGMENT_SIZE + 16);
+        Assertions.assertThrows(BadPaddingException.class, () -> decrypt(swapped));
+
+        // altered header
+        byte[] header = encrypted.clone();
+        header[0] = 9;
+        Assertions.assertThrows(IOException.class, () -> decrypt(header));
+        Assertions.assertThrows(IOException.class, () -> decrypt(new byte[5]));
+
+        // altered salt: another stream key is derived
+        byte[] salt = encrypted.clone();
+        salt[10] ^= 1;
+        Assertions.assertThrows(BadPaddingException.class, () -> decrypt(salt));
+    }
+
+    @Test
+    void testStreamKeyIsDerived() throws Exception {
+        byte[] encrypted = encrypt(new byte[10]);
+        Assertions.assertFalse(Arrays.equals(encrypted, encrypt(new byte[10])));
+
+        // the segment is not encrypted with the given key
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        byte[] iv = new byte[12];
+        System.arraycopy(encrypted, HEADER_SIZE - 7, iv, 0, 7);
+        iv[11] = 1;
+        cipher.init(Cipher.DECRYPT_MODE, secretKey, new GCMParameterSpec(128, iv));
+        cipher.updateAAD(encrypted, 0, HEADER_SIZE);
+        Assertions.assertThrows(AEADBadTagException.class, () -> cipher.doFinal(encrypted, HEADER_SIZE, encrypted.length - HEADER_SIZE));
+    }
+
+    @Test
+    void testOtherVersionsAreRejected() throws Exception {
+        byte[] encrypted = encrypt("value".getBytes(StandardCharsets.UTF_8));
+        for (byte version : new byte[]{0, 1, 3}) {
+            byte[] other = encrypted.clone();
+            other[0] = version;
+            Assertions.assertThrows(IOException.class, () -> decrypt(other));
+        }
+    }
+
+    @Test
+    void testInvalidSegmentSize() {
+        Assertions.assertThrows(IllegalArgumentException.class, () -> GcmStreamCipher.encrypt(secretKey,
+                new ByteArrayInputStream(new byte[0]), new ByteArrayOutputStream(), GcmStreamCipher.MIN_SEGMENT_SIZE - 1));
+    }
+
+    private byte[] encrypt(byte[] plainText) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        GcmStreamCipher.encrypt(secretKey, new ByteArrayInputStream(plainText), out, SEGMENT_SIZE);
+        return out.toByteArray();
+    }
+
+    private byte[] decrypt(byte[] encrypted) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        GcmStreamCipher.decrypt(secretKey, new ByteArrayInputStream(encrypted), out);
+        return out.toByteArray();
+    }
+}
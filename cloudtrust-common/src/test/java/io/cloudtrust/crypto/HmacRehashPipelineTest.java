@@ -0,0 +1,43 @@
+package io.cloudtrust.crypto;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+class HmacRehashPipelineTest {
+    @AfterEach
+    public void cleanup() {
+        CryptoUtil.clearKeys();
+    }
+
+    @Test
+    void testRehashEncryptedSource() {
+        CryptoUtil.getDatabaseEncryptionKeys().setSource(() -> "[{\"kid\": \"TEE_1\", \"value\": \"T0xEX0tFWV9PTERfS0VZIQ==\"}]");
+        CryptoUtil.getDatabaseHmacKeys().setSource(() -> "[{\"kid\": \"TEH_2\", \"value\": \"TkVXX0tFWQ==\"}, {\"kid\": \"TEH_1\", \"value\": \"T0xEX0tFWQ==\"}]");
+
+        List<StoredValue> values = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            values.add(new StoredValue("id" + i, CryptoUtil.encryptForDatabaseStorage(("user" + i + "@example.com").getBytes(StandardCharsets.UTF_8))));
+        }
+        values.add(new StoredValue("empty", null));
+        DecryptionCache cache = new DecryptionCache(100, 60000);
+        CryptoUtil.setDecryptionCache(cache);
+
+        Map<String, String> written = new ConcurrentHashMap<>();
+        MigrationProgress progress = new HmacRehashPipeline(7, 2, 2, true)
+                .run(values.iterator(), batch -> batch.forEach(v -> written.put(v.getId(), v.getValue())), null);
+
+        Assertions.assertEquals(30, progress.getMigrated());
+        Assertions.assertEquals(1, progress.getUnchanged());
+        // decrypted values are not kept by the decryption cache
+        Assertions.assertEquals(0, cache.size());
+        Assertions.assertEquals(CryptoUtil.computeHmacForDatabaseStorage("user12@example.com"), written.get("id12"));
+        Assertions.assertEquals(CryptoUtil.computeHmacsForDatabaseStorage("user12@example.com").get("TEH_2"), written.get("id12"));
+    }
+}
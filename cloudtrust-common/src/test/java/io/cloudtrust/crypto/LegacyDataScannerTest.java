@@ -0,0 +1,76 @@
+package io.cloudtrust.crypto;
+
+import io.cloudtrust.crypto.LegacyDataScanner.Kind;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+class LegacyDataScannerTest {
+    private static final String KEY_1 = "{\"kid\": \"TEE_1\", \"value\": \"T0xEX0tFWV9PTERfS0VZIQ==\"}";
+    private static final String KEY_2 = "{\"kid\": \"TEE_2\", \"value\": \"TkVXX0tFWV9ORVdfS0VZIQ==\"}";
+
+    private final List<StoredValue> values = new ArrayList<>();
+
+    @BeforeEach
+    public void init() throws Exception {
+        CryptoUtil.getDatabaseEncryptionKeys().setSource(() -> "[" + KEY_1 + "]");
+        for (int i = 0; i < 10; i++) {
+            values.add(new StoredValue("env" + i, CryptoUtil.encryptForDatabaseStorage(("value" + i).getBytes(StandardCharsets.UTF_8))));
+            values.add(new StoredValue("gcm" + i, CryptoUtil.gcmEncrypt(CryptoUtil.getDatabaseEncryptionKeys().get().getCurrentKey(), "value" + i)));
+            values.add(new StoredValue("clear" + i, "value" + i));
+        }
+        values.add(new StoredValue("unknownKey", "{\"kid\":\"TEE_9\",\"val\":\"AAAA\"}"));
+        values.add(new StoredValue("unknownGcmKey", CryptoUtil.gcmEncrypt(new SecretKeySpec(new byte[16], "AES"), "value")));
+        values.add(new StoredValue("null", null));
+        CryptoUtil.getDatabaseEncryptionKeys().setSource(() -> "[" + KEY_1 + "," + KEY_2 + "]");
+    }
+
+    @AfterEach
+    public void clear() {
+        CryptoUtil.clearKeys();
+    }
+
+    @Test
+    void testClassification() {
+        LegacyDataScanner scanner = new LegacyDataScanner(4, 3, 2, false);
+        List<StoredValue> written = new ArrayList<>();
+        MigrationProgress progress = scanner.run(values.iterator(), written::addAll, null);
+
+        Map<Kind, Long> counts = scanner.getCounts();
+        Assertions.assertEquals(10, counts.get(Kind.ENVELOPE));
+        Assertions.assertEquals(10, counts.get(Kind.LEGACY_GCM));
+        Assertions.assertEquals(10, counts.get(Kind.PLAINTEXT));
+        Assertions.assertEquals(2, counts.get(Kind.CORRUPTED));
+        Assertions.assertEquals(values.size(), progress.getRead());
+        Assertions.assertEquals(0, progress.getMigrated());
+        Assertions.assertTrue(written.isEmpty());
+        Assertions.assertTrue(scanner.getReport().contains("throughput="));
+
+        // counts are reset for each run
+        scanner.run(values.iterator(), written::addAll, null);
+        Assertions.assertEquals(10, scanner.getCounts().get(Kind.ENVELOPE));
+    }
+
+    @Test
+    void testUpgrade() {
+        LegacyDataScanner scanner = new LegacyDataScanner(4, 3, 2, true);
+        Map<String, String> written = new ConcurrentHashMap<>();
+        MigrationProgress progress = scanner.run(values.iterator(), batch -> batch.forEach(v -> written.put(v.getId(), v.getValue())), null);
+
+        Assertions.assertEquals(20, progress.getMigrated());
+        Assertions.assertEquals(20, written.size());
+        for (int i = 0; i < 10; i++) {
+            Assertions.assertEquals("TEE_2", EncryptedDataCodec.decode(written.get("gcm" + i)).kid);
+            Assertions.assertArrayEquals(("value" + i).getBytes(StandardCharsets.UTF_8), CryptoUtil.decryptFromDatabaseStorage(written.get("gcm" + i)));
+            Assertions.assertArrayEquals(("value" + i).getBytes(StandardCharsets.UTF_8), CryptoUtil.decryptFromDatabaseStorage(written.get("clear" + i)));
+        }
+    }
+}
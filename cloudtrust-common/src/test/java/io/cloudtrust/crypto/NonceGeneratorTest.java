@@ -0,0 +1,108 @@
+package io.cloudtrust.crypto;
+
+import com.github.stefanbirkner.systemlambda.SystemLambda;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+class NonceGeneratorTest {
+    @AfterEach
+    public void clear() {
+        CryptoUtil.clearKeys();
+    }
+
+    @Test
+    void testFromName() throws Exception {
+        Assertions.assertSame(NonceGenerator.random(), NonceGenerator.fromName(null));
+        Assertions.assertSame(NonceGenerator.random(), NonceGenerator.fromName("Random"));
+        Assertions.assertTrue(NonceGenerator.fromName("counter") instanceof CounterNonceGenerator);
+        Assertions.assertThrows(IllegalArgumentException.class, () -> NonceGenerator.fromName("zero"));
+
+        NonceGenerator generator = SystemLambda.withEnvironmentVariable("GCM_NONCE_STRATEGY", "counter")
+                .execute(CryptoUtil::getNonceGenerator);
+        Assertions.assertTrue(generator instanceof CounterNonceGenerator);
+        Assertions.assertSame(generator, CryptoUtil.getNonceGenerator());
+    }
+
+    @Test
+    void testCounterNoncesAreUniqueAcrossThreads() throws Exception {
+        NonceGenerator generator = NonceGenerator.counter();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<List<ByteBuffer>>> futures = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                futures.add(executor.submit(() -> {
+                    List<ByteBuffer> nonces = new ArrayList<>();
+                    for (int i = 0; i < 1000; i++) {
+                        byte[] nonce = new byte[GcmEngine.IV_SIZE];
+                        generator.nextNonce(nonce);
+                        nonces.add(ByteBuffer.wrap(nonce));
+                    }
+                    return nonces;
+                }));
+            }
+            Set<ByteBuffer> all = new HashSet<>();
+            for (Future<List<ByteBuffer>> future : futures) {
+                all.addAll(future.get());
+            }
+            Assertions.assertEquals(4000, all.size());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void testCounterRenewsPrefixInsteadOfWrappingAround() {
+        CounterNonceGenerator generator = new CounterNonceGenerator(2);
+        byte[] first = new byte[GcmEngine.IV_SIZE];
+        byte[] second = new byte[GcmEngine.IV_SIZE];
+        byte[] third = new byte[GcmEngine.IV_SIZE];
+        generator.nextNonce(first);
+        generator.nextNonce(second);
+        generator.nextNonce(third);
+
+        Assertions.assertArrayEquals(Arrays.copyOf(first, 4), Arrays.copyOf(second, 4));
+        Assertions.assertEquals(ByteBuffer.wrap(first, 4, 8).getLong() + 1, ByteBuffer.wrap(second, 4, 8).getLong());
+        Assertions.assertFalse(Arrays.equals(first, third));
+        Assertions.assertFalse(Arrays.equals(second, third));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> generator.nextNonce(new byte[8]));
+    }
+
+    @Test
+    void testCountersStartAtRandomValues() {
+        // generators of different JVMs or nodes do not start from the same nonce
+        Set<ByteBuffer> firstNonces = new HashSet<>();
+        for (int i = 0; i < 100; i++) {
+            byte[] nonce = new byte[GcmEngine.IV_SIZE];
+            NonceGenerator.counter().nextNonce(nonce);
+            Assertions.assertNotEquals(0L, ByteBuffer.wrap(nonce, 4, 8).getLong());
+            firstNonces.add(ByteBuffer.wrap(nonce));
+        }
+        Assertions.assertEquals(100, firstNonces.size());
+    }
+
+    @Test
+    void testEncryptionWithCounterNonces() throws Exception {
+        KeyGenerator keyGen = KeyGenerator.getInstance("AES");
+        keyGen.init(256);
+        SecretKey secretKey = keyGen.generateKey();
+        CryptoUtil.setNonceGenerator(NonceGenerator.counter());
+        String first = CryptoUtil.gcmEncrypt(secretKey, "value");
+        String second = CryptoUtil.gcmEncrypt(secretKey, "value");
+        Assertions.assertNotEquals(first, second);
+        Assertions.assertEquals("value", CryptoUtil.gcmDecrypt(secretKey, first));
+        Assertions.assertEquals("value", CryptoUtil.gcmDecrypt(secretKey, second));
+    }
+}
@@ -0,0 +1,203 @@
+package io.cloudtrust.crypto;
+
+import com.github.stefanbirkner.systemlambda.SystemLambda;
+import io.cloudtrust.exception.CloudtrustRuntimeException;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+class ReEncryptionPipelineTest {
+    private static final String DB_ENCRYPTION_KEY_ENV_VAR_NAME = "DB_ENCRYPTION_KEY";
+    private static final String OLD_KEY = "{\"kid\": \"TEE_1\", \"value\": \"T0xEX0tFWV9PTERfS0VZIQ==\"}";
+    private static final String NEW_KEY = "{\"kid\": \"TEE_2\", \"value\": \"TkVXX0tFWV9ORVdfS0VZIQ==\"}";
+
+    @BeforeEach
+    public void init() {
+        CryptoUtil.clearKeys();
+    }
+
+    @Test
+    void testReEncryption() throws Exception {
+        List<StoredValue> values = SystemLambda.withEnvironmentVariable(DB_ENCRYPTION_KEY_ENV_VAR_NAME, "[" + OLD_KEY + "]")
+                .execute(() -> {
+                    List<StoredValue> res = new ArrayList<>();
+                    for (int i = 0; i < 95; i++) {
+                        res.add(new StoredValue(String.format("id%03d", i), CryptoUtil.encryptForDatabaseStorage(("value" + i).getBytes(StandardCharsets.UTF_8))));
+                    }
+                    return res;
+                });
+        CryptoUtil.clearKeys();
+
+        Map<String, String> written = new ConcurrentHashMap<>();
+        List<String> checkpoints = Collections.synchronizedList(new ArrayList<>());
+        SystemLambda.withEnvironmentVariable(DB_ENCRYPTION_KEY_ENV_VAR_NAME, "[" + OLD_KEY + "," + NEW_KEY + "]")
+                .execute(() -> {
+                    // one value is already encrypted with the new key
+                    values.set(0, new StoredValue("id000", CryptoUtil.encryptForDatabaseStorage("value0".getBytes(StandardCharsets.UTF_8))));
+
+                    ReEncryptionPipeline pipeline = new ReEncryptionPipeline(10, 3, 2);
+                    MigrationProgress progress = pipeline.run(values.iterator(),
+                            batch -> batch.forEach(v -> written.put(v.getId(), v.getValue())),
+                            checkpoints::add);
+
+                    Assertions.assertEquals(95, progress.getRead());
+                    Assertions.assertEquals(94, progress.getMigrated());
+                    Assertions.assertEquals(1, progress.getUnchanged());
+                    Assertions.assertEquals(0, progress.getFailed());
+                    Assertions.assertTrue(progress.isFinished());
+                    Assertions.assertSame(progress, pipeline.getProgress());
+
+                    Assertions.assertEquals(94, written.size());
+                    for (Map.Entry<String, String> entry : written.entrySet()) {
+                        Assertions.assertTrue(entry.getValue().contains("\"TEE_2\""));
+                        String expected = "value" + Integer.parseInt(entry.getKey().substring(2));
+                        Assertions.assertEquals(expected, new String(CryptoUtil.decryptFromDatabaseStorage(entry.getValue()), StandardCharsets.UTF_8));
+                    }
+                });
+
+        // checkpoints are published in reading order
+        Assertions.assertFalse(checkpoints.isEmpty());
+        List<String> sorted = new ArrayList<>(checkpoints);
+        Collections.sort(sorted);
+        Assertions.assertEquals(sorted, checkpoints);
+        Assertions.assertEquals("id094", checkpoints.get(checkpoints.size() - 1));
+    }
+
+    @Test
+    void testLegacyValuesAreReEncrypted() throws Exception {
+        CryptoUtil.getDatabaseEncryptionKeys().setSource(() -> "[" + OLD_KEY + "]");
+        String legacy = CryptoUtil.gcmEncrypt(CryptoUtil.getDatabaseEncryptionKeys().get().getCurrentKey(), "legacy value");
+        CryptoUtil.getDatabaseEncryptionKeys().setSource(() -> "[" + OLD_KEY + "," + NEW_KEY + "]");
+
+        // legacy values are decrypted by any key
+        Assertions.assertEquals("legacy value", new String(CryptoUtil.decryptFromDatabaseStorage(legacy), StandardCharsets.UTF_8));
+
+        List<StoredValue> values = new ArrayList<>();
+        values.add(new StoredValue("legacy", legacy));
+        values.add(new StoredValue("clear", "clear text"));
+        values.add(new StoredValue("null", null));
+        Map<String, String> written = new ConcurrentHashMap<>();
+        MigrationProgress progress = new ReEncryptionPipeline(2, 1, 1)
+                .run(values.iterator(), batch -> batch.forEach(v -> written.put(v.getId(), v.getValue())), null);
+
+        Assertions.assertEquals(1, progress.getMigrated());
+        Assertions.assertEquals(2, progress.getUnchanged());
+        Assertions.assertEquals("TEE_2", EncryptedDataCodec.decode(written.get("legacy")).kid);
+        Assertions.assertEquals("legacy value", new String(CryptoUtil.decryptFromDatabaseStorage(written.get("legacy")), StandardCharsets.UTF_8));
+        CryptoUtil.clearKeys();
+    }
+
+    @Test
+    void testPurposeValuesAreReEncrypted() {
+        CryptoUtil.getDatabaseEncryptionKeys().setSource(() -> "[" + OLD_KEY + "]");
+        List<StoredValue> values = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            values.add(new StoredValue(String.format("id%03d", i), CryptoUtil.encryptForDatabaseStorage("email", ("user" + i + "@example.com").getBytes(StandardCharsets.UTF_8))));
+        }
+        CryptoUtil.getDatabaseEncryptionKeys().setSource(() -> "[" + OLD_KEY + "," + NEW_KEY + "]");
+
+        LegacyDataScanner scanner = new LegacyDataScanner(3, 2, 2, false);
+        scanner.run(values.iterator(), batch -> {
+        }, null);
+        Assertions.assertEquals(10, scanner.getCounts().get(LegacyDataScanner.Kind.ENVELOPE));
+        Assertions.assertEquals(0, scanner.getCounts().get(LegacyDataScanner.Kind.CORRUPTED));
+
+        Map<String, String> written = new ConcurrentHashMap<>();
+        List<String> checkpoints = Collections.synchronizedList(new ArrayList<>());
+        Map<String, RuntimeException> failures = new ConcurrentHashMap<>();
+        MigrationProgress progress = new ReEncryptionPipeline(3, 2, 2)
+                .run(values.iterator(), batch -> batch.forEach(v -> written.put(v.getId(), v.getValue())), checkpoints::add, failures::put);
+
+        Assertions.assertEquals(10, progress.getMigrated());
+        Assertions.assertEquals(0, progress.getFailed());
+        Assertions.assertTrue(failures.isEmpty());
+        Assertions.assertEquals("id009", checkpoints.get(checkpoints.size() - 1));
+        for (int i = 0; i < 10; i++) {
+            String value = written.get(String.format("id%03d", i));
+            CryptoUtil.EncryptedData encData = EncryptedDataCodec.decode(value);
+            Assertions.assertEquals("TEE_2", encData.kid);
+            Assertions.assertEquals("email", encData.purpose);
+            byte[] expected = ("user" + i + "@example.com").getBytes(StandardCharsets.UTF_8);
+            Assertions.assertArrayEquals(expected, CryptoUtil.decryptFromDatabaseStorage("email", value));
+            Assertions.assertArrayEquals(expected, CryptoUtil.decryptFromDatabaseStorage(value));
+            Assertions.assertNull(CryptoUtil.reencryptForDatabaseStorage(value));
+        }
+
+        // rotated values are still classified as envelopes
+        List<StoredValue> rotated = new ArrayList<>();
+        written.forEach((id, value) -> rotated.add(new StoredValue(id, value)));
+        scanner.run(rotated.iterator(), batch -> {
+        }, null);
+        Assertions.assertEquals(10, scanner.getCounts().get(LegacyDataScanner.Kind.ENVELOPE));
+        Assertions.assertEquals(0, scanner.getCounts().get(LegacyDataScanner.Kind.CORRUPTED));
+        CryptoUtil.clearKeys();
+    }
+
+    @Test
+    void testFailuresAreReportedAndStopCheckpoints() {
+        for (String failingId : new String[]{"id013", "id010"}) {
+            MigrationPipeline pipeline = new MigrationPipeline(5, 2, 2) {
+                @Override
+                protected String migrate(StoredValue value) {
+                    if (failingId.equals(value.getId())) {
+                        throw new IllegalArgumentException("cannot migrate");
+                    }
+                    return "migrated";
+                }
+            };
+            List<StoredValue> values = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                values.add(new StoredValue(String.format("id%03d", i), "value"));
+            }
+            List<String> checkpoints = Collections.synchronizedList(new ArrayList<>());
+            Map<String, RuntimeException> failures = new ConcurrentHashMap<>();
+            MigrationProgress progress = pipeline.run(values.iterator(), batch -> {
+            }, checkpoints::add, failures::put);
+
+            Assertions.assertEquals(1, progress.getFailed());
+            Assertions.assertEquals(19, progress.getMigrated());
+            Assertions.assertEquals(Collections.singleton(failingId), failures.keySet());
+            Assertions.assertTrue(failures.get(failingId) instanceof IllegalArgumentException);
+            // a resumed migration starts again with the failed value
+            String expected = String.format("id%03d", Integer.parseInt(failingId.substring(2)) - 1);
+            Assertions.assertEquals(expected, checkpoints.get(checkpoints.size() - 1));
+        }
+    }
+
+    @Test
+    void testUnknownKeyFails() throws Exception {
+        SystemLambda.withEnvironmentVariable(DB_ENCRYPTION_KEY_ENV_VAR_NAME, "[" + NEW_KEY + "]")
+                .execute(() -> {
+                    List<StoredValue> values = new ArrayList<>();
+                    for (int i = 0; i < 20; i++) {
+                        values.add(new StoredValue("id" + i, "{\"kid\": \"TEE_1\", \"val\": \"\"}"));
+                    }
+                    // TEE_1 is unknown: every value fails, nothing is sent to the sink
+                    MigrationProgress progress = new ReEncryptionPipeline(5, 2, 2)
+                            .run(values.iterator(), batch -> Assertions.fail("unexpected"), null);
+                    Assertions.assertEquals(20, progress.getFailed());
+                });
+    }
+
+    @Test
+    void testSinkFailureAbortsMigration() {
+        MigrationPipeline pipeline = new MigrationPipeline(1, 1, 1) {
+            @Override
+            protected String migrate(StoredValue value) {
+                return "migrated";
+            }
+        };
+        List<StoredValue> values = Collections.nCopies(5, new StoredValue("id", "value"));
+        Assertions.assertThrows(CloudtrustRuntimeException.class, () -> pipeline.run(values.iterator(), batch -> {
+            throw new IllegalStateException("database is down");
+        }, null));
+        Assertions.assertTrue(pipeline.getProgress().isFinished());
+    }
+}
@@ -0,0 +1,62 @@
+package io.cloudtrust.crypto;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+class ReloadableKeyRingTest {
+    private static final String KEY_1 = "{\"kid\": \"TEE_1\", \"value\": \"T0xEX0tFWV9PTERfS0VZIQ==\"}";
+    private static final String KEY_2 = "{\"kid\": \"TEE_2\", \"value\": \"TkVXX0tFWV9ORVdfS0VZIQ==\"}";
+
+    @AfterEach
+    public void cleanup() {
+        CryptoUtil.clearKeys();
+    }
+
+    @Test
+    void testReloadFromFile(@TempDir Path tempDir) throws Exception {
+        Path keysFile = tempDir.resolve("keys.json");
+        Files.write(keysFile, ("[" + KEY_1 + "]").getBytes(StandardCharsets.UTF_8));
+
+        ReloadableKeyRing keys = CryptoUtil.getDatabaseEncryptionKeys();
+        KeyRing keyRing = keys.setSource(KeySource.fromFile(keysFile));
+        Assertions.assertEquals("TEE_1", keyRing.getCurrentKid());
+        String encrypted = CryptoUtil.encryptForDatabaseStorage("value".getBytes(StandardCharsets.UTF_8));
+
+        // rotation: the new key becomes the current one, the old one is still usable to decrypt
+        Files.write(keysFile, ("[" + KEY_1 + "," + KEY_2 + "]").getBytes(StandardCharsets.UTF_8));
+        Assertions.assertSame(keyRing, keys.get());
+        keyRing = keys.reload();
+        Assertions.assertSame(keyRing, keys.get());
+        Assertions.assertEquals("TEE_2", keyRing.getCurrentKid());
+        Assertions.assertEquals(Arrays.asList("TEE_2", "TEE_1"), new ArrayList<>(keyRing.getKids()));
+        Assertions.assertArrayEquals("value".getBytes(StandardCharsets.UTF_8), CryptoUtil.decryptFromDatabaseStorage(encrypted));
+        Assertions.assertTrue(CryptoUtil.encryptForDatabaseStorage(new byte[1]).contains("TEE_2"));
+    }
+
+    @Test
+    void testFailedReloadKeepsCurrentKeys() {
+        ReloadableKeyRing keys = CryptoUtil.getDatabaseEncryptionKeys();
+        KeyRing keyRing = keys.setSource(() -> "[" + KEY_1 + "]");
+        Assertions.assertThrows(IllegalStateException.class, () -> keys.setSource(() -> "[]"));
+        Assertions.assertThrows(IllegalStateException.class, () -> keys.setSource(() -> "[" + KEY_1 + "," + KEY_1 + "]"));
+        Assertions.assertThrows(IllegalStateException.class, () -> keys.setSource(() -> "not json"));
+        Assertions.assertSame(keyRing, keys.get());
+        Assertions.assertEquals("TEE_1", keys.reload().getCurrentKid());
+    }
+
+    @Test
+    void testUnknownKid() {
+        KeyRing keyRing = CryptoUtil.getDatabaseEncryptionKeys().setSource(() -> "[" + KEY_1 + "]");
+        Assertions.assertNull(keyRing.getKey("TEE_9"));
+        Assertions.assertNull(keyRing.getKey(null));
+        Assertions.assertNotNull(keyRing.getKey("TEE_1"));
+    }
+}
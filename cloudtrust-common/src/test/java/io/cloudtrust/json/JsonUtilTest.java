@@ -0,0 +1,31 @@
+package io.cloudtrust.json;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+class JsonUtilTest {
+    @Test
+    void readerForClassTest() throws Exception {
+        Map<String, Object> value = JsonUtil.readerFor(Map.class).readValue("{\"key\": \"value\"}");
+        Assertions.assertEquals("value", value.get("key"));
+    }
+
+    @Test
+    void readerForTypeReferenceTest() throws Exception {
+        List<Integer> values = JsonUtil.readerFor(new TypeReference<List<Integer>>() {
+        }).readValue("[1, 2, 3]");
+        Assertions.assertEquals(Arrays.asList(1, 2, 3), values);
+    }
+
+    @Test
+    void writerTest() throws Exception {
+        Assertions.assertEquals("[\"a\",\"b\"]", JsonUtil.writerFor(List.class).writeValueAsString(Arrays.asList("a", "b")));
+        Assertions.assertEquals("{\"key\":\"value\"}", JsonUtil.writer().writeValueAsString(Collections.singletonMap("key", "value")));
+    }
+}
@@ -2,9 +2,12 @@ package io.cloudtrust.keycloak;
 
 import java.util.List;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import io.cloudtrust.json.JsonUtil;
 
 public class CloudtrustContext {
+    private static final ObjectWriter WRITER = JsonUtil.writerFor(CloudtrustContext.class);
+
     private String credentialId;
     private List<AlternativeAuthenticator> credentials;
 
@@ -26,7 +29,7 @@ public class CloudtrustContext {
 
     public String toString() {
         try {
-            return new ObjectMapper().writeValueAsString(this);
+            return WRITER.writeValueAsString(this);
         } catch(Exception e) {
             return super.toString();
         }
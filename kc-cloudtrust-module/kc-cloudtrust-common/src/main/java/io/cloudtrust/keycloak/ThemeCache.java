@@ -0,0 +1,444 @@
+package io.cloudtrust.keycloak;
+
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.RealmModel;
+import org.keycloak.theme.Theme;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Caches used by {@link ThemeUtils}, one instance per Keycloak session factory.
+ * <p>
+ * Message bundles are cached by (realm, theme name, theme type, locale): when the theme of a realm changes, its
+ * messages are looked up with the new theme name. Entries of a realm are invalidated when the realm is removed.
+ * Cached bundles are immutable copies of the theme properties, so that they can be shared by concurrent requests.
+ * <p>
+ * Themes are indexed by (theme name, theme type) with their resolved parent chain, so that looking up a theme or
+ * one of its resources does not query every theme provider.
+ * <p>
+ * Theme resources are kept in memory by (theme name, theme type, path) up to a total size, evicting the least
+ * recently used ones first. Resources larger than a sixteenth of this size are not cached: they are streamed from the
+ * theme by {@link #openResource(KeycloakSession, Theme.Type, String, String)}.
+ * <p>
+ * Message patterns are parsed once by (theme name, theme type, locale, message key). As {@link MessageFormat} is not
+ * thread-safe, each call gets a copy of the parsed format.
+ * <p>
+ * Keycloak does not notify theme deployments: {@link #refreshThemes()} must be called when themes are deployed
+ * while theme caching is enabled, so that the index, resources, messages and formats are read again.
+ */
+public class ThemeCache {
+    // a Keycloak server has a single session factory: the map only grows when factories are created by tests
+    private static final ConcurrentMap<KeycloakSessionFactory, ThemeCache> CACHES = new ConcurrentHashMap<>();
+
+    private static final long DEFAULT_MAX_RESOURCE_BYTES = 16L * 1024 * 1024;
+
+    private final ConcurrentMap<MessagesKey, Map<String, String>> messages = new ConcurrentHashMap<>();
+    private final ConcurrentMap<ThemeKey, List<Theme>> themes = new ConcurrentHashMap<>();
+    private final ConcurrentMap<FormatKey, CompiledMessage> formats = new ConcurrentHashMap<>();
+    private final LinkedHashMap<ResourceKey, ThemeResource> resources = new LinkedHashMap<>(16, 0.75f, true);
+    private final long maxResourceBytes;
+    private long resourceBytes;
+
+    ThemeCache() {
+        this(DEFAULT_MAX_RESOURCE_BYTES);
+    }
+
+    ThemeCache(long maxResourceBytes) {
+        this.maxResourceBytes = maxResourceBytes;
+    }
+
+    /**
+     * Gets the cache of the session factory. Caching is disabled when the Keycloak theme cache is disabled
+     * (e.g. while developing themes) or when the session is not bound to a session factory.
+     *
+     * @param session The Keycloak session
+     * @return the cache, or null if caching is disabled
+     */
+    public static ThemeCache get(KeycloakSession session) {
+        KeycloakSessionFactory factory = session.getKeycloakSessionFactory();
+        if (factory == null || session.theme() == null || !session.theme().isCacheEnabled()) {
+            return null;
+        }
+        ThemeCache cache = CACHES.get(factory);
+        // computeIfAbsent locks even when the key is present: only use it on the first call
+        return cache != null ? cache : CACHES.computeIfAbsent(factory, ThemeCache::register);
+    }
+
+    private static ThemeCache register(KeycloakSessionFactory factory) {
+        ThemeCache cache = new ThemeCache();
+        factory.register(event -> {
+            if (event instanceof RealmModel.RealmRemovedEvent) {
+                cache.invalidate(((RealmModel.RealmRemovedEvent) event).getRealm().getId());
+            }
+        });
+        return cache;
+    }
+
+    /**
+     * Gets the messages of a theme, loading them on the first call
+     *
+     * @param realm  The realm
+     * @param theme  The theme
+     * @param locale The locale
+     * @return the messages by key, unmodifiable
+     */
+    public Map<String, String> getMessages(RealmModel realm, Theme theme, Locale locale) throws IOException {
+        MessagesKey key = new MessagesKey(realm == null ? null : realm.getId(), theme.getName(), theme.getType(), locale);
+        Map<String, String> res = messages.get(key);
+        if (res == null) {
+            res = toMap(theme.getMessages(locale));
+            Map<String, String> previous = messages.putIfAbsent(key, res);
+            if (previous != null) {
+                res = previous;
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Copies a message bundle, including its default properties
+     *
+     * @param properties The message bundle
+     * @return an unmodifiable copy
+     */
+    static Map<String, String> toMap(Properties properties) {
+        Map<String, String> res = new HashMap<>();
+        for (String name : properties.stringPropertyNames()) {
+            res.put(name, properties.getProperty(name));
+        }
+        return Collections.unmodifiableMap(res);
+    }
+
+    /**
+     * Gets the parsed format of a message
+     *
+     * @param theme     The theme the message comes from
+     * @param locale    The locale
+     * @param messageId The message identifier
+     * @param pattern   The message pattern
+     * @return a copy of the format, which may be used by the caller only
+     */
+    public MessageFormat getMessageFormat(Theme theme, Locale locale, String messageId, String pattern) {
+        FormatKey key = new FormatKey(theme.getName(), theme.getType(), locale, messageId);
+        CompiledMessage res = formats.get(key);
+        if (res == null || !res.pattern.equals(pattern)) {
+            // unknown message or message updated since it was parsed
+            res = new CompiledMessage(pattern, new MessageFormat(pattern, locale));
+            formats.put(key, res);
+        }
+        return (MessageFormat) res.format.clone();
+    }
+
+    /**
+     * Gets a theme followed by its parents, resolving them through the theme providers on the first call
+     *
+     * @param session The Keycloak session
+     * @param type    The theme type
+     * @param name    The theme name
+     * @return the theme chain, empty if the theme does not exist
+     */
+    public List<Theme> getThemeChain(KeycloakSession session, Theme.Type type, String name) throws IOException {
+        ThemeKey key = new ThemeKey(name, type);
+        List<Theme> res = themes.get(key);
+        if (res == null) {
+            res = resolveThemeChain(session, type, name);
+            themes.putIfAbsent(key, res);
+        }
+        return res;
+    }
+
+    private static List<Theme> resolveThemeChain(KeycloakSession session, Theme.Type type, String name) throws IOException {
+        List<Theme> chain = new ArrayList<>();
+        Set<String> visited = new HashSet<>();
+        Theme theme = ThemeUtils.resolveThemeByName(session, type, name);
+        while (theme != null && visited.add(theme.getName())) {
+            chain.add(theme);
+            theme = theme.getParentName() == null ? null : ThemeUtils.resolveThemeByName(session, type, theme.getParentName());
+        }
+        return Collections.unmodifiableList(chain);
+    }
+
+    /**
+     * Gets a resource from a theme or its parents, reading it on the first call
+     *
+     * @param session   The Keycloak session
+     * @param type      The theme type
+     * @param themeName The theme name
+     * @param path      The path to the resource
+     * @return the resource, or null if none of the themes of the chain contains it
+     */
+    public ThemeResource getResource(KeycloakSession session, Theme.Type type, String themeName, String path) throws IOException {
+        ResourceKey key = new ResourceKey(themeName, type, path);
+        ThemeResource cached = getCachedResource(key);
+        if (cached != null) {
+            return cached;
+        }
+        for (Theme theme : getThemeChain(session, type, themeName)) {
+            InputStream stream = theme.getResourceAsStream(path);
+            if (stream != null) {
+                ThemeResource res = ThemeResource.read(stream);
+                putResource(key, res);
+                return res;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Opens a resource from a theme or its parents, reading it on the first call. Resources too large to be cached
+     * are streamed from the theme instead of being copied in memory.
+     *
+     * @param session   The Keycloak session
+     * @param type      The theme type
+     * @param themeName The theme name
+     * @param path      The path to the resource
+     * @return a stream on the resource, or null if none of the themes of the chain contains it
+     */
+    public InputStream openResource(KeycloakSession session, Theme.Type type, String themeName, String path) throws IOException {
+        ResourceKey key = new ResourceKey(themeName, type, path);
+        ThemeResource cached = getCachedResource(key);
+        if (cached != null) {
+            return cached.openStream();
+        }
+        for (Theme theme : getThemeChain(session, type, themeName)) {
+            InputStream stream = theme.getResourceAsStream(path);
+            if (stream != null) {
+                return readResource(key, stream);
+            }
+        }
+        return null;
+    }
+
+    private InputStream readResource(ResourceKey key, InputStream stream) throws IOException {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = stream.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+                if (out.size() > maxResourceBytes / 16) {
+                    // too large to be cached: the caller reads the rest from the theme
+                    return new SequenceInputStream(new ByteArrayInputStream(out.toByteArray()), stream);
+                }
+            }
+            stream.close();
+            ThemeResource res = new ThemeResource(out.toByteArray());
+            putResource(key, res);
+            return res.openStream();
+        } catch (IOException | RuntimeException e) {
+            stream.close();
+            throw e;
+        }
+    }
+
+    private ThemeResource getCachedResource(ResourceKey key) {
+        synchronized (resources) {
+            return resources.get(key);
+        }
+    }
+
+    private void putResource(ResourceKey key, ThemeResource resource) {
+        if (resource.getSize() > maxResourceBytes / 16) {
+            return;
+        }
+        synchronized (resources) {
+            ThemeResource previous = resources.put(key, resource);
+            resourceBytes += resource.getSize() - (previous == null ? 0 : previous.getSize());
+            Iterator<ThemeResource> it = resources.values().iterator();
+            while (resourceBytes > maxResourceBytes && it.hasNext()) {
+                resourceBytes -= it.next().getSize();
+                it.remove();
+            }
+        }
+    }
+
+    int getResourceCount() {
+        synchronized (resources) {
+            return resources.size();
+        }
+    }
+
+    /**
+     * Drops everything read from the themes: the theme index, the cached resources, the message bundles and the
+     * parsed message formats, e.g. after a theme deployment
+     */
+    public void refreshThemes() {
+        themes.clear();
+        messages.clear();
+        formats.clear();
+        clearResources();
+    }
+
+    private void clearResources() {
+        synchronized (resources) {
+            resources.clear();
+            resourceBytes = 0;
+        }
+    }
+
+    /**
+     * Removes the entries of a realm
+     *
+     * @param realmId The realm identifier
+     */
+    public void invalidate(String realmId) {
+        messages.keySet().removeIf(key -> Objects.equals(realmId, key.realmId));
+    }
+
+    /**
+     * Removes all the entries
+     */
+    public void clear() {
+        refreshThemes();
+    }
+
+    private static class ThemeKey {
+        private final String name;
+        private final Theme.Type type;
+
+        private ThemeKey(String name, Theme.Type type) {
+            this.name = name;
+            this.type = type;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof ThemeKey)) {
+                return false;
+            }
+            ThemeKey that = (ThemeKey) o;
+            return Objects.equals(name, that.name) && type == that.type;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(name, type);
+        }
+    }
+
+    private static class CompiledMessage {
+        private final String pattern;
+        private final MessageFormat format;
+
+        private CompiledMessage(String pattern, MessageFormat format) {
+            this.pattern = pattern;
+            this.format = format;
+        }
+    }
+
+    private static class FormatKey {
+        private final String themeName;
+        private final Theme.Type type;
+        private final Locale locale;
+        private final String messageId;
+
+        private FormatKey(String themeName, Theme.Type type, Locale locale, String messageId) {
+            this.themeName = themeName;
+            this.type = type;
+            this.locale = locale;
+            this.messageId = messageId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof FormatKey)) {
+                return false;
+            }
+            FormatKey that = (FormatKey) o;
+            return Objects.equals(themeName, that.themeName) && type == that.type
+                    && Objects.equals(locale, that.locale) && Objects.equals(messageId, that.messageId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(themeName, type, locale, messageId);
+        }
+    }
+
+    private static class ResourceKey {
+        private final String themeName;
+        private final Theme.Type type;
+        private final String path;
+
+        private ResourceKey(String themeName, Theme.Type type, String path) {
+            this.themeName = themeName;
+            this.type = type;
+            this.path = path;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof ResourceKey)) {
+                return false;
+            }
+            ResourceKey that = (ResourceKey) o;
+            return Objects.equals(themeName, that.themeName) && type == that.type && Objects.equals(path, that.path);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(themeName, type, path);
+        }
+    }
+
+    private static class MessagesKey {
+        private final String realmId;
+        private final String themeName;
+        private final Theme.Type type;
+        private final Locale locale;
+
+        private MessagesKey(String realmId, String themeName, Theme.Type type, Locale locale) {
+            this.realmId = realmId;
+            this.themeName = themeName;
+            this.type = type;
+            this.locale = locale;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof MessagesKey)) {
+                return false;
+            }
+            MessagesKey that = (MessagesKey) o;
+            return Objects.equals(realmId, that.realmId) && Objects.equals(themeName, that.themeName)
+                    && type == that.type && Objects.equals(locale, that.locale);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(realmId, themeName, type, locale);
+        }
+    }
+}
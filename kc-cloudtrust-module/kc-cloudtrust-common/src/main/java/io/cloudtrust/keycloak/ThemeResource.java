@@ -0,0 +1,89 @@
+package io.cloudtrust.keycloak;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+
+/**
+ * Content of a theme resource with its entity tag.
+ * <p>
+ * The entity tag is a strong validator computed from the SHA-256 hash of the content, quoted so that it can be used
+ * as is in ETag and If-None-Match HTTP headers.
+ */
+public class ThemeResource {
+    private final byte[] content;
+    private final String etag;
+
+    ThemeResource(byte[] content) {
+        this.content = content;
+        this.etag = computeEtag(content);
+    }
+
+    /**
+     * Reads a resource and closes the stream
+     *
+     * @param stream The resource stream
+     * @return the resource
+     * @throws IOException
+     */
+    public static ThemeResource read(InputStream stream) throws IOException {
+        try (InputStream in = stream) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return new ThemeResource(out.toByteArray());
+        }
+    }
+
+    private static String computeEtag(byte[] content) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(content);
+            return "\"" + Base64.getUrlEncoder().withoutPadding().encodeToString(hash) + "\"";
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    public String getEtag() {
+        return etag;
+    }
+
+    public int getSize() {
+        return content.length;
+    }
+
+    /**
+     * Checks an If-None-Match header value against the entity tag of the resource
+     *
+     * @param ifNoneMatch The header value, may be null
+     * @return true if the client copy is up to date
+     */
+    public boolean matches(String ifNoneMatch) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String tag : ifNoneMatch.split(",")) {
+            String value = tag.trim();
+            if ("*".equals(value) || etag.equals(value) || etag.equals(value.startsWith("W/") ? value.substring(2) : null)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Opens a stream on the content, without copying it
+     *
+     * @return a new stream
+     */
+    public InputStream openStream() {
+        return new ByteArrayInputStream(content);
+    }
+}
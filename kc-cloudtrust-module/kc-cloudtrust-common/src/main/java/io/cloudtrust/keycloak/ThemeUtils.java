@@ -9,7 +9,13 @@ import org.keycloak.theme.ThemeProvider;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.text.MessageFormat;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 
@@ -28,13 +34,25 @@ public class ThemeUtils {
         RealmModel realm = session.getContext().getRealm();
         switch (type) {
             case ACCOUNT:
-                return findThemeByName(session, type, realm.getAccountTheme());
             case ADMIN:
-                return findThemeByName(session, type, realm.getAdminTheme());
             case EMAIL:
-                return findThemeByName(session, type, realm.getEmailTheme());
             case LOGIN:
-                return findThemeByName(session, type, realm.getLoginTheme());
+                return findThemeByName(session, type, getThemeName(realm, type));
+            default:
+                return null;
+        }
+    }
+
+    private static String getThemeName(RealmModel realm, Theme.Type type) {
+        switch (type) {
+            case ACCOUNT:
+                return realm.getAccountTheme();
+            case ADMIN:
+                return realm.getAdminTheme();
+            case EMAIL:
+                return realm.getEmailTheme();
+            case LOGIN:
+                return realm.getLoginTheme();
             default:
                 return null;
         }
@@ -50,6 +68,15 @@ public class ThemeUtils {
      * @throws IOException
      */
     public static Theme findThemeByName(KeycloakSession session, Theme.Type type, String name) throws IOException {
+        ThemeCache cache = ThemeCache.get(session);
+        if (cache != null) {
+            List<Theme> chain = cache.getThemeChain(session, type, name);
+            return chain.isEmpty() ? null : chain.get(0);
+        }
+        return resolveThemeByName(session, type, name);
+    }
+
+    static Theme resolveThemeByName(KeycloakSession session, Theme.Type type, String name) throws IOException {
         Set<ThemeProvider> providers = session.getAllProviders(ThemeProvider.class);
         // We iterate through all the theme providers
         for (ThemeProvider provider : providers) {
@@ -70,6 +97,12 @@ public class ThemeUtils {
      * @throws IOException
      */
     public static InputStream getStreamToResourceImage(KeycloakSession session, String path) throws IOException {
+        ThemeCache cache = ThemeCache.get(session);
+        if (cache != null) {
+            // Resources are served from memory once read, large ones are streamed from the theme
+            String name = getThemeName(session.getContext().getRealm(), Theme.Type.LOGIN);
+            return cache.openResource(session, Theme.Type.LOGIN, name, path);
+        }
         // We grab the current theme
         Theme theme = findTheme(session, Theme.Type.LOGIN);
         while (theme != null) {
@@ -86,21 +119,139 @@ public class ThemeUtils {
         return null;
     }
 
+    /**
+     * Returns a resource in this realm's theme with its entity tag. The resource is read in full to compute the tag:
+     * use {@link #getStreamToResourceImage(KeycloakSession, String)} to stream large resources.
+     *
+     * @param path The path to the resource
+     * @return The resource, or null if it does not exist
+     * @throws IOException
+     */
+    public static ThemeResource getThemeResource(KeycloakSession session, String path) throws IOException {
+        ThemeCache cache = ThemeCache.get(session);
+        if (cache != null) {
+            String name = getThemeName(session.getContext().getRealm(), Theme.Type.LOGIN);
+            return cache.getResource(session, Theme.Type.LOGIN, name, path);
+        }
+        InputStream stream = getStreamToResourceImage(session, path);
+        return stream == null ? null : ThemeResource.read(stream);
+    }
+
     /**
      * Load message stored in the theme
      */
     public static String loadMessageFromTheme(KeycloakSession session, UserModel user, String messageId) {
-        Theme theme;
+        Theme theme = getLoginTheme(session);
+        if (theme == null) {
+            return null;
+        }
+
+        Map<String, String> messagesBundle = handleThemeResources(session, theme, resolveLocale(session, user));
+        return messagesBundle.get(messageId);
+    }
+
+    /**
+     * Format a message stored in the theme. When theme caching is enabled, the message pattern is parsed once.
+     *
+     * @param session    The Keycloak session
+     * @param user       The user whose locale is used, English if null
+     * @param messageId  The message identifier
+     * @param parameters The message parameters
+     * @return The formatted message, or null if the message is not found
+     */
+    public static String formatMessageFromTheme(KeycloakSession session, UserModel user, String messageId, Object... parameters) {
+        Theme theme = getLoginTheme(session);
+        if (theme == null) {
+            return null;
+        }
+
+        Locale locale = resolveLocale(session, user);
+        String pattern = handleThemeResources(session, theme, locale).get(messageId);
+        if (pattern == null) {
+            return null;
+        }
+        ThemeCache cache = ThemeCache.get(session);
+        MessageFormat format = cache != null ? cache.getMessageFormat(theme, locale, messageId, pattern) : new MessageFormat(pattern, locale);
+        return format.format(parameters);
+    }
+
+    /**
+     * Load several messages stored in the theme, resolving the theme, the user locale and the bundle once
+     *
+     * @param session    The Keycloak session
+     * @param user       The user whose locale is used, English if null
+     * @param messageIds The message identifiers
+     * @return The messages by identifier, without the messages which are not found
+     */
+    public static Map<String, String> loadMessagesFromTheme(KeycloakSession session, UserModel user, Collection<String> messageIds) {
+        Theme theme = getLoginTheme(session);
+        if (theme == null) {
+            return Collections.emptyMap();
+        }
+
+        return getMessages(handleThemeResources(session, theme, resolveLocale(session, user)), messageIds);
+    }
+
+    /**
+     * Load several messages stored in the theme for several locales, e.g. to send an email to users with different locales
+     *
+     * @param session    The Keycloak session
+     * @param locales    The locales
+     * @param messageIds The message identifiers
+     * @return The messages by identifier for each locale, without the messages which are not found
+     */
+    public static Map<Locale, Map<String, String>> loadLocalizedMessagesFromTheme(KeycloakSession session, Collection<Locale> locales, Collection<String> messageIds) {
+        Theme theme = getLoginTheme(session);
+        if (theme == null) {
+            return Collections.emptyMap();
+        }
+
+        Map<Locale, Map<String, String>> res = new LinkedHashMap<>();
+        for (Locale locale : locales) {
+            res.computeIfAbsent(locale, l -> getMessages(handleThemeResources(session, theme, l), messageIds));
+        }
+        return res;
+    }
+
+    private static Map<String, String> getMessages(Map<String, String> messagesBundle, Collection<String> messageIds) {
+        Map<String, String> res = new LinkedHashMap<>();
+        for (String messageId : messageIds) {
+            String message = messagesBundle.get(messageId);
+            if (message != null) {
+                res.put(messageId, message);
+            }
+        }
+        return res;
+    }
+
+    private static Theme getLoginTheme(KeycloakSession session) {
         try {
-            theme = session.theme().getTheme(Theme.Type.LOGIN);
+            return session.theme().getTheme(Theme.Type.LOGIN);
         } catch (IOException e) {
             LOG.error("Failed to create theme", e);
             return null;
         }
+    }
+
+    private static Locale resolveLocale(KeycloakSession session, UserModel user) {
+        return user != null ? session.getContext().resolveLocale(user) : Locale.ENGLISH;
+    }
 
-        Locale locale = user != null ? session.getContext().resolveLocale(user) : Locale.ENGLISH;
-        Properties messagesBundle = handleThemeResources(theme, locale);
-        return messagesBundle.getProperty(messageId);
+    /**
+     * Load message bundle, from the theme cache of the session factory when theme caching is enabled.
+     * The returned bundle is unmodifiable.
+     */
+    public static Map<String, String> handleThemeResources(KeycloakSession session, Theme theme, Locale locale) {
+        ThemeCache cache = ThemeCache.get(session);
+        if (cache == null) {
+            return ThemeCache.toMap(handleThemeResources(theme, locale));
+        }
+        try {
+            return cache.getMessages(session.getContext().getRealm(), theme, locale);
+        } catch (IOException e) {
+            LOG.warn("Failed to load messages", e);
+            return Collections.emptyMap();
+        }
     }
 
     /**
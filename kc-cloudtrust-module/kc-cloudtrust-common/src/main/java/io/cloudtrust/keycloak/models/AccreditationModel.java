@@ -4,7 +4,9 @@ import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import io.cloudtrust.json.JsonUtil;
 import org.jboss.logging.Logger;
 
 import java.io.IOException;
@@ -18,6 +20,8 @@ import java.time.temporal.ChronoUnit;
 @JsonIgnoreProperties(value = "creationMillis")
 public class AccreditationModel {
     private static final Logger LOG = Logger.getLogger(AccreditationModel.class);
+    private static final ObjectReader READER = JsonUtil.readerFor(AccreditationModel.class);
+    private static final ObjectWriter WRITER = JsonUtil.writerFor(AccreditationModel.class);
     private final DateFormat cloudtrustDateFormat = new SimpleDateFormat("dd.MM.yyyy");
 
     private String type;
@@ -70,7 +74,7 @@ public class AccreditationModel {
     public static AccreditationModel tryParse(String json) {
         if (json != null) {
             try {
-                return new ObjectMapper().readValue(json, AccreditationModel.class);
+                return READER.readValue(json);
             } catch (IOException e) {
                 LOG.warnf(e, "Can't parse %s", json);
             }
@@ -79,6 +83,6 @@ public class AccreditationModel {
     }
 
     public String toJSON() throws JsonProcessingException {
-        return new ObjectMapper().writeValueAsString(this);
+        return WRITER.writeValueAsString(this);
     }
 }
@@ -0,0 +1,108 @@
+package io.cloudtrust.keycloak;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.theme.Theme;
+import org.keycloak.theme.Theme.Type;
+import org.keycloak.theme.ThemeProvider;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+
+public class ThemeCacheTest {
+	@Mock
+	KeycloakSession keycloakSession;
+
+	@Mock
+	ThemeProvider themeProvider;
+
+	@Mock
+	Theme theme;
+
+	@BeforeEach
+	public void setup() throws IOException {
+		MockitoAnnotations.initMocks(this);
+
+		Mockito.when(keycloakSession.getAllProviders(ThemeProvider.class)).thenReturn(Collections.singleton(themeProvider));
+		Mockito.when(themeProvider.hasTheme("theme", Type.LOGIN)).thenReturn(true);
+		Mockito.when(themeProvider.getTheme("theme", Type.LOGIN)).thenReturn(theme);
+		Mockito.when(theme.getName()).thenReturn("theme");
+		Mockito.when(theme.getResourceAsStream(Mockito.anyString())).thenAnswer(inv -> {
+			String path = inv.getArgument(0);
+			return path.startsWith("missing") ? null : new ByteArrayInputStream(new byte[Integer.parseInt(path.substring(0, path.indexOf('/')))]);
+		});
+	}
+
+	@Test
+	void resourceEvictionTest() throws IOException {
+		ThemeCache cache = new ThemeCache(1000);
+		Assertions.assertEquals(50, cache.getResource(keycloakSession, Type.LOGIN, "theme", "50/0").getSize());
+		Assertions.assertNull(cache.getResource(keycloakSession, Type.LOGIN, "theme", "missing"));
+		Assertions.assertNull(cache.getResource(keycloakSession, Type.LOGIN, "unknown", "50/0"));
+		for (int i = 1; i < 20; i++) {
+			cache.getResource(keycloakSession, Type.LOGIN, "theme", "50/" + i);
+		}
+		Assertions.assertEquals(20, cache.getResourceCount());
+
+		// the least recently used resource is evicted
+		cache.getResource(keycloakSession, Type.LOGIN, "theme", "50/0");
+		cache.getResource(keycloakSession, Type.LOGIN, "theme", "50/20");
+		Assertions.assertEquals(20, cache.getResourceCount());
+		cache.getResource(keycloakSession, Type.LOGIN, "theme", "50/0");
+		Mockito.verify(theme, Mockito.times(1)).getResourceAsStream("50/0");
+		cache.getResource(keycloakSession, Type.LOGIN, "theme", "50/1");
+		Mockito.verify(theme, Mockito.times(2)).getResourceAsStream("50/1");
+
+		// large resources are not cached
+		cache.getResource(keycloakSession, Type.LOGIN, "theme", "63/large");
+		cache.getResource(keycloakSession, Type.LOGIN, "theme", "63/large");
+		Mockito.verify(theme, Mockito.times(2)).getResourceAsStream("63/large");
+
+		cache.clear();
+		Assertions.assertEquals(0, cache.getResourceCount());
+	}
+
+	@Test
+	void largeResourcesAreStreamedTest() throws IOException {
+		ThemeCache cache = new ThemeCache(1000);
+		InputStream small = cache.openResource(keycloakSession, Type.LOGIN, "theme", "50/small");
+		Assertions.assertEquals(50, readAll(small));
+		Assertions.assertEquals(50, readAll(cache.openResource(keycloakSession, Type.LOGIN, "theme", "50/small")));
+		Mockito.verify(theme, Mockito.times(1)).getResourceAsStream("50/small");
+
+		// the beginning read while checking the size is followed by the rest of the theme stream
+		InputStream large = cache.openResource(keycloakSession, Type.LOGIN, "theme", "100000/large");
+		Assertions.assertEquals(100000, readAll(large));
+		Assertions.assertEquals(1, cache.getResourceCount());
+		Assertions.assertNull(cache.openResource(keycloakSession, Type.LOGIN, "theme", "missing"));
+	}
+
+	private static int readAll(InputStream stream) throws IOException {
+		try (InputStream in = stream) {
+			int size = 0;
+			while (in.read() != -1) {
+				size++;
+			}
+			return size;
+		}
+	}
+
+	@Test
+	void etagTest() throws IOException {
+		ThemeResource empty = ThemeResource.read(new ByteArrayInputStream(new byte[0]));
+		Assertions.assertEquals("\"47DEQpj8HBSa-_TImW-5JCeuQeRkm5NMpJWZG3hSuFU\"", empty.getEtag());
+		Assertions.assertNotEquals(empty.getEtag(), ThemeResource.read(new ByteArrayInputStream(new byte[1])).getEtag());
+		Assertions.assertTrue(empty.matches("\"other\", W/" + empty.getEtag()));
+		Assertions.assertTrue(empty.matches("*"));
+		Assertions.assertFalse(empty.matches("\"other\""));
+		Assertions.assertFalse(empty.matches(null));
+		Assertions.assertEquals(-1, empty.openStream().read());
+	}
+}
@@ -1,23 +1,34 @@
 package io.cloudtrust.keycloak;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
 import java.util.Set;
 import java.util.function.BiFunction;
 import java.util.stream.Stream;
 
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.MethodSource;
 import org.keycloak.models.KeycloakContext;
 import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
 import org.keycloak.models.RealmModel;
+import org.keycloak.models.ThemeManager;
+import org.keycloak.provider.ProviderEventListener;
 import org.keycloak.theme.Theme;
 import org.keycloak.theme.Theme.Type;
 import org.keycloak.theme.ThemeProvider;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
@@ -50,6 +61,12 @@ public class ThemeUtilsTest {
 	@Mock
 	ThemeProvider emailAndLoginThemeProvider;
 
+	@Mock
+	ThemeManager themeManager;
+
+	@Mock
+	KeycloakSessionFactory sessionFactory;
+
 	@BeforeEach
 	public void setup() throws IOException {
 		MockitoAnnotations.initMocks(this);
@@ -76,6 +93,164 @@ public class ThemeUtilsTest {
 		Mockito.when(adminTheme.getName()).thenReturn("admin");
 		Mockito.when(emailTheme.getName()).thenReturn("email");
 		Mockito.when(loginTheme.getName()).thenReturn("login");
+		Mockito.when(loginTheme.getType()).thenReturn(Type.LOGIN);
+
+		Mockito.when(realm.getId()).thenReturn("realmId");
+		Mockito.when(keycloakSession.theme()).thenReturn(themeManager);
+		Mockito.when(themeManager.getTheme(Type.LOGIN)).thenReturn(loginTheme);
+		Properties messages = new Properties();
+		messages.setProperty("greeting", "Hello");
+		messages.setProperty("welcome", "Welcome {0}, you have {1,number,integer} messages");
+		Mockito.when(loginTheme.getMessages(Locale.ENGLISH)).thenReturn(messages);
+	}
+
+	@Test
+	void loadMessageFromThemeWithoutCacheTest() throws IOException {
+		// no session factory (mocked session): messages are read from the theme each time
+		Mockito.when(themeManager.isCacheEnabled()).thenReturn(true);
+		Assertions.assertEquals("Hello", ThemeUtils.loadMessageFromTheme(keycloakSession, null, "greeting"));
+		Assertions.assertNull(ThemeUtils.loadMessageFromTheme(keycloakSession, null, "unknown"));
+		Mockito.verify(loginTheme, Mockito.times(2)).getMessages(Locale.ENGLISH);
+
+		// theme cache disabled
+		Mockito.when(keycloakSession.getKeycloakSessionFactory()).thenReturn(sessionFactory);
+		Mockito.when(themeManager.isCacheEnabled()).thenReturn(false);
+		Assertions.assertEquals("Hello", ThemeUtils.loadMessageFromTheme(keycloakSession, null, "greeting"));
+		Mockito.verify(loginTheme, Mockito.times(3)).getMessages(Locale.ENGLISH);
+	}
+
+	@Test
+	void loadMessageFromThemeWithCacheTest() throws IOException {
+		Mockito.when(keycloakSession.getKeycloakSessionFactory()).thenReturn(sessionFactory);
+		Mockito.when(themeManager.isCacheEnabled()).thenReturn(true);
+		Assertions.assertEquals("Hello", ThemeUtils.loadMessageFromTheme(keycloakSession, null, "greeting"));
+		Assertions.assertNull(ThemeUtils.loadMessageFromTheme(keycloakSession, null, "unknown"));
+		Mockito.verify(loginTheme, Mockito.times(1)).getMessages(Locale.ENGLISH);
+
+		// realm removal invalidates its entries
+		ArgumentCaptor<ProviderEventListener> listener = ArgumentCaptor.forClass(ProviderEventListener.class);
+		Mockito.verify(sessionFactory).register(listener.capture());
+		RealmModel.RealmRemovedEvent event = Mockito.mock(RealmModel.RealmRemovedEvent.class);
+		Mockito.when(event.getRealm()).thenReturn(realm);
+		listener.getValue().onEvent(event);
+		Assertions.assertEquals("Hello", ThemeUtils.loadMessageFromTheme(keycloakSession, null, "greeting"));
+		Mockito.verify(loginTheme, Mockito.times(2)).getMessages(Locale.ENGLISH);
+
+		ThemeCache.get(keycloakSession).clear();
+		Assertions.assertEquals("Hello", ThemeUtils.loadMessageFromTheme(keycloakSession, null, "greeting"));
+		Mockito.verify(loginTheme, Mockito.times(3)).getMessages(Locale.ENGLISH);
+	}
+
+	@Test
+	void handleThemeResourcesTest() throws IOException {
+		// without cache, the bundle is a copy of the theme messages
+		Map<String, String> messages = ThemeUtils.handleThemeResources(keycloakSession, loginTheme, Locale.ENGLISH);
+		Assertions.assertEquals("Hello", messages.get("greeting"));
+		Assertions.assertThrows(UnsupportedOperationException.class, () -> messages.put("greeting", "Bye"));
+
+		// with cache, the shared bundle can't be modified
+		Mockito.when(keycloakSession.getKeycloakSessionFactory()).thenReturn(sessionFactory);
+		Mockito.when(themeManager.isCacheEnabled()).thenReturn(true);
+		Map<String, String> cached = ThemeUtils.handleThemeResources(keycloakSession, loginTheme, Locale.ENGLISH);
+		Assertions.assertSame(cached, ThemeUtils.handleThemeResources(keycloakSession, loginTheme, Locale.ENGLISH));
+		Assertions.assertThrows(UnsupportedOperationException.class, () -> cached.put("greeting", "Bye"));
+		Assertions.assertThrows(UnsupportedOperationException.class, () -> cached.remove("greeting"));
+		Assertions.assertEquals("Hello", ThemeUtils.loadMessageFromTheme(keycloakSession, null, "greeting"));
+
+		// the cache is created once per session factory
+		Assertions.assertSame(ThemeCache.get(keycloakSession), ThemeCache.get(keycloakSession));
+		Mockito.verify(sessionFactory, Mockito.times(1)).register(Mockito.any());
+	}
+
+	@Test
+	void formatMessageFromThemeTest() throws IOException {
+		// without cache
+		Assertions.assertEquals("Welcome John, you have 1,234 messages", ThemeUtils.formatMessageFromTheme(keycloakSession, null, "welcome", "John", 1234));
+		Assertions.assertEquals("Hello", ThemeUtils.formatMessageFromTheme(keycloakSession, null, "greeting"));
+		Assertions.assertNull(ThemeUtils.formatMessageFromTheme(keycloakSession, null, "unknown"));
+
+		// with cache, formats are parsed once and copied for each use
+		Mockito.when(keycloakSession.getKeycloakSessionFactory()).thenReturn(sessionFactory);
+		Mockito.when(themeManager.isCacheEnabled()).thenReturn(true);
+		Assertions.assertEquals("Welcome John, you have 3 messages", ThemeUtils.formatMessageFromTheme(keycloakSession, null, "welcome", "John", 3));
+		Assertions.assertEquals("Welcome Jane, you have 0 messages", ThemeUtils.formatMessageFromTheme(keycloakSession, null, "welcome", "Jane", 0));
+		ThemeCache cache = ThemeCache.get(keycloakSession);
+		Assertions.assertNotSame(cache.getMessageFormat(loginTheme, Locale.ENGLISH, "welcome", "Welcome {0}, you have {1,number,integer} messages"),
+				cache.getMessageFormat(loginTheme, Locale.ENGLISH, "welcome", "Welcome {0}, you have {1,number,integer} messages"));
+
+		// updated pattern
+		Assertions.assertEquals("Hi John", cache.getMessageFormat(loginTheme, Locale.ENGLISH, "welcome", "Hi {0}").format(new Object[]{"John"}));
+
+		// a theme deployment drops the messages and their parsed formats
+		Properties redeployed = new Properties();
+		redeployed.setProperty("welcome", "Welcome back {0}");
+		Mockito.when(loginTheme.getMessages(Locale.ENGLISH)).thenReturn(redeployed);
+		cache.refreshThemes();
+		Assertions.assertEquals("Welcome back John", ThemeUtils.formatMessageFromTheme(keycloakSession, null, "welcome", "John"));
+		Assertions.assertNull(ThemeUtils.loadMessageFromTheme(keycloakSession, null, "greeting"));
+	}
+
+	@Test
+	void loadMessagesFromThemeTest() throws IOException {
+		Properties frenchMessages = new Properties();
+		frenchMessages.setProperty("greeting", "Bonjour");
+		frenchMessages.setProperty("farewell", "Au revoir");
+		Mockito.when(loginTheme.getMessages(Locale.FRENCH)).thenReturn(frenchMessages);
+
+		Map<String, String> messages = ThemeUtils.loadMessagesFromTheme(keycloakSession, null, Arrays.asList("greeting", "farewell"));
+		Assertions.assertEquals(Collections.singletonMap("greeting", "Hello"), messages);
+
+		Map<Locale, Map<String, String>> byLocale = ThemeUtils.loadLocalizedMessagesFromTheme(keycloakSession,
+				Arrays.asList(Locale.ENGLISH, Locale.FRENCH, Locale.FRENCH), Arrays.asList("greeting", "farewell"));
+		Assertions.assertEquals(2, byLocale.size());
+		Assertions.assertEquals("Hello", byLocale.get(Locale.ENGLISH).get("greeting"));
+		Assertions.assertEquals("Bonjour", byLocale.get(Locale.FRENCH).get("greeting"));
+		Assertions.assertEquals("Au revoir", byLocale.get(Locale.FRENCH).get("farewell"));
+		Mockito.verify(themeManager, Mockito.times(2)).getTheme(Type.LOGIN);
+		Mockito.verify(loginTheme, Mockito.times(1)).getMessages(Locale.FRENCH);
+
+		// theme can't be loaded
+		Mockito.when(themeManager.getTheme(Type.LOGIN)).thenThrow(new IOException("test"));
+		Assertions.assertTrue(ThemeUtils.loadMessagesFromTheme(keycloakSession, null, Arrays.asList("greeting")).isEmpty());
+		Assertions.assertTrue(ThemeUtils.loadLocalizedMessagesFromTheme(keycloakSession, Arrays.asList(Locale.ENGLISH), Arrays.asList("greeting")).isEmpty());
+	}
+
+	@Test
+	void getStreamToResourceImageTest() throws IOException {
+		Theme baseTheme = Mockito.mock(Theme.class);
+		Mockito.when(baseTheme.getName()).thenReturn("base");
+		Mockito.when(loginTheme.getParentName()).thenReturn("base");
+		Mockito.when(emailAndLoginThemeProvider.hasTheme("base", Type.LOGIN)).thenReturn(true);
+		Mockito.when(emailAndLoginThemeProvider.getTheme("base", Type.LOGIN)).thenReturn(baseTheme);
+		Mockito.when(baseTheme.getResourceAsStream("logo.png")).thenAnswer(inv -> new ByteArrayInputStream(new byte[]{1, 2, 3}));
+		Mockito.when(keycloakSession.getAllProviders(ThemeProvider.class)).thenReturn(Collections.singleton(emailAndLoginThemeProvider));
+
+		// without cache, the theme chain is resolved for each call
+		Assertions.assertNotNull(ThemeUtils.getStreamToResourceImage(keycloakSession, "logo.png"));
+		Assertions.assertNull(ThemeUtils.getStreamToResourceImage(keycloakSession, "unknown.png"));
+		Mockito.verify(emailAndLoginThemeProvider, Mockito.times(2)).hasTheme("base", Type.LOGIN);
+
+		// with cache, the theme chain is resolved once
+		Mockito.when(keycloakSession.getKeycloakSessionFactory()).thenReturn(sessionFactory);
+		Mockito.when(themeManager.isCacheEnabled()).thenReturn(true);
+		try (InputStream stream = ThemeUtils.getStreamToResourceImage(keycloakSession, "logo.png")) {
+			Assertions.assertEquals(3, stream.available());
+		}
+		Assertions.assertNull(ThemeUtils.getStreamToResourceImage(keycloakSession, "unknown.png"));
+		Assertions.assertEquals("login", ThemeUtils.findTheme(keycloakSession, Type.LOGIN).getName());
+		Assertions.assertNull(ThemeUtils.findThemeByName(keycloakSession, Type.LOGIN, "unknown"));
+		Mockito.verify(emailAndLoginThemeProvider, Mockito.times(3)).hasTheme("base", Type.LOGIN);
+		Mockito.verify(emailAndLoginThemeProvider, Mockito.times(3)).hasTheme("loginTheme", Type.LOGIN);
+
+		// the index is rebuilt after a refresh
+		ThemeCache.get(keycloakSession).refreshThemes();
+		Assertions.assertNotNull(ThemeUtils.getStreamToResourceImage(keycloakSession, "logo.png"));
+		Mockito.verify(emailAndLoginThemeProvider, Mockito.times(4)).hasTheme("loginTheme", Type.LOGIN);
+
+		// resources are read once from the theme
+		ThemeResource resource = ThemeUtils.getThemeResource(keycloakSession, "logo.png");
+		Assertions.assertTrue(resource.matches(resource.getEtag()));
+		Mockito.verify(baseTheme, Mockito.times(3)).getResourceAsStream("logo.png");
 	}
 
 	@ParameterizedTest